@@ -0,0 +1,193 @@
+package symphonia;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.sound.midi.MidiChannel;
+
+/**
+ * Checks that the hot paths of the application allocate no more than they
+ * should, so that garbage collection does not get in the way of playback.
+ *
+ * Each operation is run many times to warm it up, and then measured: the
+ * bytes allocated by the measuring thread (from the JVM's per-thread
+ * allocation counter) are divided by the number of operations, and the median
+ * of the runs is compared with the budget of the operation. The operations are:
+ *
+ *   add, replace, remove - the commands, run through Session.execute as if
+ *                          entered by the user (bytes per command)
+ *   print                - "print tune" on a tune of 1000 notes (bytes per note)
+ *   paint                - a full paint of a laid out score on an offscreen
+ *                          image (bytes per note)
+ *   play                 - scheduling the events of a tune with a Player, on
+ *                          CapturingChannels (bytes per note)
+ *
+ * The budgets are about a quarter above what the operations allocate today
+ * (written next to each budget), so that the check does not fail by chance,
+ * while a change that makes a hot path allocate noticeably more does. The
+ * process exits with status 1 if any operation is over its budget.
+ *
+ * java -cp Symphonia.jar:bench-classes symphonia.AllocationBudget [--notes N] [--runs N]
+ *
+ * (or "ant bench-alloc -Dbench.args=..."). Needs a JVM that counts the bytes
+ * allocated by each thread (HotSpot does).
+ */
+public class AllocationBudget {
+
+    private static final String usage = "Usage: AllocationBudget [--notes <count>] [--runs <count>]";
+
+    // the most bytes each operation may allocate, per command or per note (with what it allocated when
+    // the budgets were last set, the median of 5 runs of 10000 notes)
+    static final long addBudget = 1536; // measured 1200
+    static final long replaceBudget = 2112; // measured 1672
+    static final long removeBudget = 1088; // measured 848, with adding a note back, so the tune keeps its size
+    static final long printBudget = 272; // measured 205
+    static final long paintBudget = 112; // measured 89, mostly the text of dynamic markings
+    static final long playBudget = 16; // measured 0: nothing per note, in fact
+
+    // the size of the image the score is painted on
+    static final int width = 1316;
+    static final int height = 718;
+
+    private static final com.sun.management.ThreadMXBean threads
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    // something an operation can do many times
+    private interface Operation {
+
+        void run(int i);
+    }
+
+    public static void main(String[] args) {
+        int notes = 10000;
+        int runs = 5;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--notes")) {
+                    notes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--runs")) {
+                    runs = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (notes < 100 || runs < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not count the bytes allocated by each thread.");
+            System.exit(2);
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.println(String.format(Locale.ROOT, "%d notes, %d runs", notes, runs));
+        System.out.println("operation       bytes/op    budget");
+        boolean ok = true;
+
+        // the commands, on a session of their own
+        final Session session = BenchTunes.session(notes);
+        ok &= check("add", addBudget, notes, runs, new Operation() {
+            public void run(int i) {
+                session.execute("add C# 1 +1 mf");
+            }
+        });
+        final String[] replaces = new String[1000];
+        for (int i = 0; i < replaces.length; i++) {
+            replaces[i] = "replace " + i + " Eb 0.5 -1 p";
+        }
+        ok &= check("replace", replaceBudget, notes, runs, new Operation() {
+            public void run(int i) {
+                session.execute(replaces[i % replaces.length]);
+            }
+        });
+        ok &= check("remove", removeBudget, notes, runs, new Operation() {
+            public void run(int i) {
+                session.execute("remove last");
+                session.tune.add(new Note("C", 1, 0, "mf"));
+            }
+        });
+
+        final Session printed = BenchTunes.session(1000);
+        ok &= check("print", printBudget, 1000, runs, new Operation() {
+            public void run(int i) {
+                if (i % 1000 == 0) {
+                    printed.execute("print tune");
+                }
+            }
+        });
+
+        // a full paint of the score
+        final List<Note> tune = Arrays.asList(BenchTunes.random(notes));
+        final ScoreLayout layout = ScoreLayout.compute(tune, width);
+        final ScoreRenderer renderer = new ScoreRenderer();
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        ok &= check("paint", paintBudget, notes, runs, new Operation() {
+            public void run(int i) {
+                if (i % tune.size() == 0) {
+                    renderer.paint(g2, layout, 0, layout.height());
+                }
+            }
+        });
+        g2.dispose();
+
+        // playback, as fast as possible
+        CapturingChannel channel = new CapturingChannel(0); // records nothing
+        MidiChannel[] channels = new MidiChannel[16];
+        Arrays.fill(channels, channel);
+        final Player player = new Player(channels);
+        final List<List<Note>> voices = Collections.singletonList(tune);
+        ok &= check("play", playBudget, notes, runs, new Operation() {
+            public void run(int i) {
+                if (i % tune.size() == 0) {
+                    player.play(voices, 0);
+                }
+            }
+        });
+
+        System.out.println(ok ? "All operations are within budget." : "Some operations are over budget.");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Warm an operation up, then measure the bytes it allocates.
+     *
+     * @param name   the name of the operation
+     * @param budget the most bytes it may allocate per operation
+     * @param count  the number of operations in a run
+     * @param runs   the number of runs to measure (after as many to warm up)
+     * @param op     the operation
+     * @return true if the operation is within budget in the median run
+     */
+    private static boolean check(String name, long budget, int count, int runs, Operation op) {
+        long thread = Thread.currentThread().getId();
+        long[] measured = new long[runs];
+        for (int run = 0; run < 2 * runs; run++) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < count; i++) {
+                op.run(i);
+            }
+            long bytes = threads.getThreadAllocatedBytes(thread) - before;
+            if (run >= runs) {
+                measured[run - runs] = bytes / count;
+            }
+        }
+        Arrays.sort(measured);
+        long median = measured[runs / 2];
+        boolean ok = median <= budget;
+        System.out.println(String.format(Locale.ROOT, "%-12s %11d %9d%s", name, median, budget, ok ? "" : "  OVER BUDGET"));
+        return ok;
+    }
+}
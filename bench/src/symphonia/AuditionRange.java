@@ -0,0 +1,80 @@
+package symphonia;
+
+import java.util.Locale;
+
+/**
+ * Checks that every note a tune can hold is auditioned.
+ *
+ * Every note name (each letter, natural, sharp and flat) is made at every
+ * octave change a tune allows, and each must fall within the range of pitches
+ * that Audition renders samples for, with the lowest (Cb two octaves down)
+ * and the highest (B# two octaves up) at the ends of the range. Then those two
+ * notes are auditioned, on an audio line that keeps the loudest sample
+ * written to it, and each must be heard. The process exits with status 1 if
+ * any check fails.
+ *
+ * java -cp Symphonia.jar:bench-classes symphonia.AuditionRange
+ *
+ * (or "ant bench-audition"). No sound card is needed.
+ */
+public class AuditionRange {
+
+    private static final String[] letters = {"C", "D", "E", "F", "G", "A", "B"};
+    private static final String[] accidentals = {"", "#", "b"};
+
+    // how loud a note must be to count as heard (of 32767 at full velocity)
+    private static final int audible = 1000;
+
+    // how long to wait for a note to be heard, and for it to die away
+    private static final long waitMillis = 1000;
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean ok = true;
+
+        // every pitch a note can have is within the range
+        Note lowest = null;
+        Note highest = null;
+        for (int octave = -2; octave <= 2; octave++) {
+            for (String letter : letters) {
+                for (String accidental : accidentals) {
+                    Note n = new Note(letter + accidental, 1, octave, "mf");
+                    if (n.midiNum < Audition.lowest || n.midiNum > Audition.highest) {
+                        System.out.println(n.pitchName() + " (" + n.midiNum + ") is outside the range of audition.");
+                        ok = false;
+                    }
+                    if (lowest == null || n.midiNum < lowest.midiNum) {
+                        lowest = n;
+                    }
+                    if (highest == null || n.midiNum > highest.midiNum) {
+                        highest = n;
+                    }
+                }
+            }
+        }
+        if (lowest.midiNum != Audition.lowest || highest.midiNum != Audition.highest) {
+            System.out.println(String.format(Locale.ROOT, "Audition renders %d to %d, but notes go from %d to %d.",
+                    Audition.lowest, Audition.highest, lowest.midiNum, highest.midiNum));
+            ok = false;
+        }
+
+        // the lowest and highest notes are heard
+        CapturingLine line = new CapturingLine(Audition.format);
+        Audition audition = new Audition(line);
+        for (Note n : new Note[]{lowest, highest}) {
+            Thread.sleep(waitMillis); // until the last note has died away
+            line.takePeak();
+            audition.play(n);
+            int peak = 0;
+            for (long end = System.currentTimeMillis() + waitMillis; peak < audible && System.currentTimeMillis() < end;) {
+                Thread.sleep(10);
+                peak = Math.max(peak, line.takePeak());
+            }
+            boolean heard = peak >= audible;
+            System.out.println(String.format(Locale.ROOT, "%-5s (%d): peak %5d%s", n.pitchName(), n.midiNum, peak, heard ? "" : "  NOT HEARD"));
+            ok &= heard;
+        }
+
+        System.out.println(ok ? "Every note is auditioned." : "Some notes are not auditioned.");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,90 @@
+package symphonia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Random;
+
+/**
+ * Tunes and helpers shared by the benchmarks.
+ *
+ * The tunes are random but reproducible: the same size always gives the same
+ * notes, so that results of different runs can be compared.
+ */
+class BenchTunes {
+
+    // every note name accepted by the "add" command
+    static final String[] noteNames = {"C", "C#", "Db", "D", "D#", "Eb", "E", "F", "F#", "Gb", "G", "G#", "Ab", "A", "A#", "Bb", "B"};
+
+    static final String[] dynamics = {"pp", "p", "mp", "mf", "f", "ff"};
+
+    /**
+     * Create a random tune.
+     *
+     * @param size the number of notes in the tune
+     * @return the notes of the tune
+     */
+    static Note[] random(int size) {
+        Random r = new Random(size);
+        Note[] notes = new Note[size];
+        for (int i = 0; i < size; i++) {
+            notes[i] = new Note(noteNames[r.nextInt(noteNames.length)],
+                    Note.allowedDurations[r.nextInt(Note.allowedDurations.length)],
+                    r.nextInt(5) - 2, dynamics[r.nextInt(dynamics.length)]);
+        }
+        return notes;
+    }
+
+    /**
+     * Create a session whose tune is a random tune.
+     *
+     * @param size the number of notes in the tune
+     * @return a new session
+     */
+    static Session session(int size) {
+        Session session = new Session(0.5, "mf");
+        for (Note n : random(size)) {
+            session.tune.add(n);
+        }
+        return session;
+    }
+
+    /**
+     * A writer that throws away everything written to it, so that exports
+     * measure formatting rather than disk or memory bandwidth.
+     */
+    static class NullWriter extends Writer {
+
+        long count;
+
+        public void write(char[] cbuf, int off, int len) {
+            count += len;
+        }
+
+        public void write(String str) {
+            count += str.length();
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * An output stream that throws away everything written to it.
+     */
+    static class NullOutputStream extends OutputStream {
+
+        long count;
+
+        public void write(int b) {
+            count++;
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
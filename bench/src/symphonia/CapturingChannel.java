@@ -0,0 +1,152 @@
+package symphonia;
+
+import javax.sound.midi.MidiChannel;
+
+/**
+ * A MIDI channel that makes no sound, but records when every note on and note
+ * off message arrives. It stands in for the channels of the real synthesizer,
+ * so that playback can be timed on machines without a sound card.
+ *
+ * Events are stored in arrays allocated up front, so recording an event does
+ * not allocate (and cannot make the garbage collector disturb the timing).
+ */
+class CapturingChannel implements MidiChannel {
+
+    private final long[] times;
+    private final int[] keys;
+    private final boolean[] on;
+    private int count;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param capacity the largest number of events that will be recorded
+     */
+    CapturingChannel(int capacity) {
+        times = new long[capacity];
+        keys = new int[capacity];
+        on = new boolean[capacity];
+    }
+
+    private void capture(int noteNumber, boolean noteOn) {
+        long now = System.nanoTime();
+        if (count < times.length) {
+            times[count] = now;
+            keys[count] = noteNumber;
+            on[count] = noteOn;
+            count++;
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    // the System.nanoTime() at which an event arrived
+    long time(int event) {
+        return times[event];
+    }
+
+    int key(int event) {
+        return keys[event];
+    }
+
+    boolean isNoteOn(int event) {
+        return on[event];
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    public void noteOn(int noteNumber, int velocity) {
+        capture(noteNumber, velocity > 0);
+    }
+
+    public void noteOff(int noteNumber, int velocity) {
+        capture(noteNumber, false);
+    }
+
+    public void noteOff(int noteNumber) {
+        capture(noteNumber, false);
+    }
+
+    public void setPolyPressure(int noteNumber, int pressure) {
+    }
+
+    public int getPolyPressure(int noteNumber) {
+        return 0;
+    }
+
+    public void setChannelPressure(int pressure) {
+    }
+
+    public int getChannelPressure() {
+        return 0;
+    }
+
+    public void controlChange(int controller, int value) {
+    }
+
+    public int getController(int controller) {
+        return 0;
+    }
+
+    public void programChange(int program) {
+    }
+
+    public void programChange(int bank, int program) {
+    }
+
+    public int getProgram() {
+        return 0;
+    }
+
+    public void setPitchBend(int bend) {
+    }
+
+    public int getPitchBend() {
+        return 8192;
+    }
+
+    public void resetAllControllers() {
+    }
+
+    public void allNotesOff() {
+    }
+
+    public void allSoundOff() {
+    }
+
+    public boolean localControl(boolean on) {
+        return false;
+    }
+
+    public void setMono(boolean on) {
+    }
+
+    public boolean getMono() {
+        return false;
+    }
+
+    public void setOmni(boolean on) {
+    }
+
+    public boolean getOmni() {
+        return false;
+    }
+
+    public void setMute(boolean mute) {
+    }
+
+    public boolean getMute() {
+        return false;
+    }
+
+    public void setSolo(boolean soloState) {
+    }
+
+    public boolean getSolo() {
+        return false;
+    }
+}
@@ -0,0 +1,144 @@
+package symphonia;
+
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * An audio line that makes no sound, but keeps the loudest sample written to
+ * it. It stands in for the line of the sound card, so that audition can be
+ * checked on machines without one.
+ *
+ * Like a real line, it takes blocks at the rate they would be played (it
+ * waits for the time a block lasts before returning from write()), so the
+ * mixer feeding it is paced as it would be.
+ */
+class CapturingLine implements SourceDataLine {
+
+    private final AudioFormat format;
+    private volatile int peak;
+    private long frames;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param format the format of the samples (16 bit, little endian, mono)
+     */
+    CapturingLine(AudioFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Get the loudest sample written since the last call, and start again.
+     *
+     * @return the largest absolute value of a sample
+     */
+    int takePeak() {
+        int p = peak;
+        peak = 0;
+        return p;
+    }
+
+    public int write(byte[] b, int off, int len) {
+        int p = 0;
+        for (int i = off; i + 1 < off + len; i += 2) {
+            p = Math.max(p, Math.abs((short) ((b[i] & 0xFF) | (b[i + 1] << 8))));
+        }
+        if (p > peak) {
+            peak = p;
+        }
+        frames += len / 2;
+        LockSupport.parkNanos((long) (len / 2 * 1e9 / format.getSampleRate()));
+        return len;
+    }
+
+    public void open(AudioFormat format, int bufferSize) {
+    }
+
+    public void open(AudioFormat format) {
+    }
+
+    public void open() {
+    }
+
+    public void drain() {
+    }
+
+    public void flush() {
+    }
+
+    public void start() {
+    }
+
+    public void stop() {
+    }
+
+    public boolean isRunning() {
+        return true;
+    }
+
+    public boolean isActive() {
+        return true;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    public int getBufferSize() {
+        return 0;
+    }
+
+    public int available() {
+        return 0;
+    }
+
+    public int getFramePosition() {
+        return (int) frames;
+    }
+
+    public long getLongFramePosition() {
+        return frames;
+    }
+
+    public long getMicrosecondPosition() {
+        return (long) (frames * 1e6 / format.getSampleRate());
+    }
+
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    public Line.Info getLineInfo() {
+        return new Line.Info(SourceDataLine.class);
+    }
+
+    public void close() {
+    }
+
+    public boolean isOpen() {
+        return true;
+    }
+
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("No controls");
+    }
+
+    public void addLineListener(LineListener listener) {
+    }
+
+    public void removeLineListener(LineListener listener) {
+    }
+}
@@ -0,0 +1,94 @@
+package symphonia;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and running of the editing commands, both called directly on
+ * Symphonia and dispatched by name through Session.execute (as the command
+ * box, command files and the other front ends do).
+ *
+ * Every benchmark leaves the tune with the size it started with: a note that
+ * is added is removed again, and a note that is removed is put back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    Session session;
+    Symphonia symphonia;
+    String replaceMiddle;
+    String removeMiddle;
+    int middle;
+
+    @Setup
+    public void setup() {
+        session = BenchTunes.session(size);
+        symphonia = new Symphonia(session);
+        middle = size / 2;
+        replaceMiddle = "replace " + middle + " Bb 2 -1 p";
+        removeMiddle = "remove " + middle;
+    }
+
+    @Benchmark
+    public String add() {
+        String feedback = symphonia.add("add F# 1.5 +1 ff");
+        session.tune.remove(session.tune.size() - 1);
+        return feedback;
+    }
+
+    @Benchmark
+    public String replace() {
+        return symphonia.replace(replaceMiddle);
+    }
+
+    @Benchmark
+    public String remove() {
+        Note n = session.tune.get(middle);
+        String feedback = symphonia.remove(removeMiddle);
+        session.tune.add(middle, n);
+        return feedback;
+    }
+
+    @Benchmark
+    public String executeAdd() {
+        String feedback = session.execute("add F# 1.5 +1 ff");
+        session.tune.remove(session.tune.size() - 1);
+        return feedback;
+    }
+
+    @Benchmark
+    public String executeReplace() {
+        return session.execute(replaceMiddle);
+    }
+
+    @Benchmark
+    public String executeRemove() {
+        Note n = session.tune.get(middle);
+        String feedback = session.execute(removeMiddle);
+        session.tune.add(middle, n);
+        return feedback;
+    }
+
+    @Benchmark
+    public String executeUnknown() {
+        return session.execute("transpose 0 3 +2");
+    }
+}
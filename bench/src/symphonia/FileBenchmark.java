@@ -0,0 +1,101 @@
+package symphonia;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Sequence;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Importing and exporting command files and MusicXML files, and compiling
+ * tunes to MIDI. Files
+ * are read from and written to memory, so that the disk does not take part.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    Session session;
+    String commandFile;
+    byte[] musicXmlFile;
+
+    // throws away the feedback of imported commands
+    static final Consumer<String> ignore = new Consumer<String>() {
+        public void accept(String text) {
+        }
+    };
+
+    @Setup
+    public void setup() throws IOException {
+        session = BenchTunes.session(size);
+        StringWriter w = new StringWriter();
+        CommandFile.write(session.voices, w);
+        commandFile = w.toString();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MusicXml.write(session.voices, out);
+        musicXmlFile = out.toByteArray();
+    }
+
+    @Benchmark
+    public Session importCommands() throws IOException {
+        Session s = new Session(0.5, "mf");
+        CommandFile.run(new BufferedReader(new StringReader(commandFile)), s, ignore);
+        return s;
+    }
+
+    @Benchmark
+    public long exportCommands() throws IOException {
+        BenchTunes.NullWriter w = new BenchTunes.NullWriter();
+        CommandFile.write(session.voices, w);
+        return w.count;
+    }
+
+    @Benchmark
+    public Session importMusicXml() throws IOException {
+        Session s = new Session(0.5, "mf");
+        MusicXml.read(new ByteArrayInputStream(musicXmlFile), s, ignore);
+        return s;
+    }
+
+    @Benchmark
+    public long exportMusicXml() throws IOException {
+        BenchTunes.NullOutputStream out = new BenchTunes.NullOutputStream();
+        MusicXml.write(session.voices, out);
+        return out.count;
+    }
+
+    @Benchmark
+    public Sequence compileMidi() throws InvalidMidiDataException {
+        return MidiFile.toSequence(session.voices, session.beat_duration);
+    }
+
+    @Benchmark
+    public long exportMidi() throws IOException {
+        BenchTunes.NullOutputStream out = new BenchTunes.NullOutputStream();
+        MidiFile.write(session.voices, session.beat_duration, out);
+        return out.count;
+    }
+}
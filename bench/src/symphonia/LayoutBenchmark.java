@@ -0,0 +1,86 @@
+package symphonia;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The work done by MainPanel to show the score: laying out the whole tune,
+ * and painting one window's worth of it on an offscreen image (at the start
+ * and at the end of the tune, as when scrolled to the bottom).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class LayoutBenchmark {
+
+    // the size of the visible part of the score
+    static final int width = 1316;
+    static final int height = 718;
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    List<Note> notes;
+    ScoreLayout layout;
+    ScoreRenderer renderer;
+    BufferedImage image;
+    Graphics2D g2;
+
+    @Setup
+    public void setup() {
+        notes = Arrays.asList(BenchTunes.random(size));
+        layout = ScoreLayout.compute(notes, width);
+        renderer = new ScoreRenderer();
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+    }
+
+    @TearDown
+    public void tearDown() {
+        g2.dispose();
+    }
+
+    @Benchmark
+    public ScoreLayout layout() {
+        return ScoreLayout.compute(notes, width);
+    }
+
+    @Benchmark
+    public BufferedImage paintFirstPage() {
+        renderer.paint(g2, layout, 0, height);
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage paintLastPage() {
+        double bottom = layout.height();
+        Graphics2D g = (Graphics2D) g2.create();
+        try {
+            g.translate(0, height - bottom);
+            renderer.paint(g, layout, bottom - height, bottom);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+}
@@ -0,0 +1,54 @@
+package symphonia;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Creation of notes, and the staff position computed for every note each time
+ * the score is laid out. Each benchmark goes over a whole tune.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteBenchmark {
+
+    @Param({"100", "1000", "10000", "100000", "1000000"})
+    int size;
+
+    Note[] notes;
+
+    @Setup
+    public void setup() {
+        notes = BenchTunes.random(size);
+    }
+
+    @Benchmark
+    public void construct(Blackhole bh) {
+        for (Note n : notes) {
+            bh.consume(new Note(n.noteName, n.duration, n.deltaOctave, n.dynamic_marking));
+        }
+    }
+
+    @Benchmark
+    public int staffDistFromMidC() {
+        int sum = 0;
+        for (Note n : notes) {
+            sum += n.staffDistFromMidC();
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,113 @@
+package symphonia;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import javax.sound.midi.MidiChannel;
+
+/**
+ * Measures how accurately tunes are played.
+ *
+ * A random tune is played by a Player, exactly as the "play" command does,
+ * but on CapturingChannels instead of a synthesizer. The time of every note
+ * on and note off is compared with the ideal schedule (each note lasting
+ * beat_duration times its duration), and the error is reported:
+ *
+ *   drift  - how late a note starts compared with the ideal schedule. Notes
+ *            are timed from the start of the tune, so drift should not grow
+ *            over the tune.
+ *   jitter - the standard deviation of the error in the length of each note
+ *            (its onset to the next onset), i.e. how uneven the rhythm is.
+ *
+ * java -cp Symphonia.jar:bench-classes symphonia.PlaybackTiming [--beat SECONDS] [--notes N] [--runs N]
+ *
+ * (or "ant bench-playback -Dbench.args=..."). No sound card is needed.
+ */
+public class PlaybackTiming {
+
+    private static final String usage = "Usage: PlaybackTiming [--beat <seconds>] [--notes <count>] [--runs <count>]";
+
+    public static void main(String[] args) {
+        double beat_duration = 0.05;
+        int notes = 100;
+        int runs = 5;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--beat")) {
+                    beat_duration = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("--notes")) {
+                    notes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--runs")) {
+                    runs = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (beat_duration <= 0 || notes < 2 || runs < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+
+        Note[] tune = BenchTunes.random(notes);
+        CapturingChannel channel = new CapturingChannel(2 * notes);
+        MidiChannel[] channels = new MidiChannel[16];
+        Arrays.fill(channels, channel); // every note is recorded, whichever channel it is played on
+        List<List<Note>> voices = Collections.singletonList(Arrays.asList(tune));
+        System.out.println(String.format(Locale.ROOT, "%d notes, beat %.3f s, %d runs", notes, beat_duration, runs));
+        System.out.println("run  mean drift  max drift  final drift  jitter  (ms)");
+
+        double worstDrift = 0;
+        double sumJitter = 0;
+        for (int run = 1; run <= runs; run++) {
+            channel.clear();
+            new Player(channels).play(voices, beat_duration);
+            double[] result = analyze(tune, beat_duration, channel);
+            worstDrift = Math.max(worstDrift, result[1]);
+            sumJitter += result[3];
+            System.out.println(String.format(Locale.ROOT, "%3d  %10.3f  %9.3f  %11.3f  %6.3f",
+                    run, result[0], result[1], result[2], result[3]));
+        }
+        System.out.println(String.format(Locale.ROOT, "worst max drift %.3f ms, mean jitter %.3f ms", worstDrift, sumJitter / runs));
+    }
+
+    /**
+     * Compare the recorded events with the ideal schedule.
+     *
+     * @return the mean, maximum and final drift and the jitter (in milliseconds)
+     */
+    static double[] analyze(Note[] tune, double beat_duration, CapturingChannel channel) {
+        if (channel.count() != 2 * tune.length) {
+            throw new IllegalStateException("Expected " + 2 * tune.length + " events, got " + channel.count());
+        }
+
+        // every note plays a note on then a note off, so onsets are the even events
+        long start = channel.time(0);
+        double ideal = 0; // the ideal onset, in nanoseconds from the start
+        double sumDrift = 0;
+        double maxDrift = 0;
+        double drift = 0;
+        double sumError = 0;
+        double sumSquaredError = 0;
+        for (int i = 0; i < tune.length; i++) {
+            drift = channel.time(2 * i) - start - ideal;
+            sumDrift += drift;
+            maxDrift = Math.max(maxDrift, Math.abs(drift));
+
+            double length = beat_duration * tune[i].duration * 1e9;
+            if (i + 1 < tune.length) {
+                double error = channel.time(2 * i + 2) - channel.time(2 * i) - length;
+                sumError += error;
+                sumSquaredError += error * error;
+            }
+            ideal += length;
+        }
+        int intervals = tune.length - 1;
+        double meanError = sumError / intervals;
+        double jitter = Math.sqrt(Math.max(0, sumSquaredError / intervals - meanError * meanError));
+        return new double[]{sumDrift / tune.length / 1e6, maxDrift / 1e6, drift / 1e6, jitter / 1e6};
+    }
+}
@@ -0,0 +1,105 @@
+package symphonia;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Measures how fast notes can be recorded from a MIDI input.
+ *
+ * A random tune is replayed by a ReplayTransmitter into a MidiRecorder,
+ * exactly as the "record" command attaches one to a MIDI keyboard, and the
+ * notes recorded are compared with the tune. For each run it reports the
+ * rate events were sent at, the number of events lost (because the ring
+ * buffer was full) and the number of notes recorded wrongly (which should be
+ * 0 whenever no events were lost). Notes of the tune outside the range of a
+ * MIDI recording (Cb two octaves down) are expected to be skipped.
+ *
+ * java -cp Symphonia.jar:bench-classes symphonia.RecordingThroughput [--notes N] [--speed X] [--runs N]
+ *
+ * (or "ant bench-record -Dbench.args=..."). The default speed of 100000
+ * sends a few hundred thousand events a second; a speed of 0 sends them as
+ * fast as possible, which fills the ring buffer faster than any MIDI device
+ * could. No MIDI device is needed.
+ */
+public class RecordingThroughput {
+
+    private static final String usage = "Usage: RecordingThroughput [--notes <count>] [--speed <times faster than played>] [--runs <count>]";
+
+    private static final double beat_duration = 0.5;
+
+    public static void main(String[] args) {
+        int notes = 100000;
+        double speed = 100000;
+        int runs = 5;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--notes")) {
+                    notes = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--speed")) {
+                    speed = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("--runs")) {
+                    runs = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (notes < 1 || speed < 0 || runs < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+
+        Note[] tune = BenchTunes.random(notes);
+        ReplayTransmitter in = ReplayTransmitter.of(tune, beat_duration);
+        System.out.println(String.format(Locale.ROOT, "%d notes (%d events), speed %s, %d runs",
+                notes, in.count(), speed > 0 ? speed + "x" : "unlimited", runs));
+        System.out.println("run  events/s  recorded  skipped  lost  wrong");
+
+        for (int run = 1; run <= runs; run++) {
+            final List<Note> recorded = new ArrayList<>(notes);
+            MidiRecorder recorder = new MidiRecorder(beat_duration, 0, new Consumer<Note[]>() {
+                public void accept(Note[] batch) {
+                    for (Note n : batch) {
+                        recorded.add(n);
+                    }
+                }
+            });
+            recorder.attach(in);
+            long start = System.nanoTime();
+            in.replay(speed);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            recorder.close();
+            System.out.println(String.format(Locale.ROOT, "%3d  %8.0f  %8d  %7d  %4d  %5d",
+                    run, in.count() / seconds, recorder.recorded(), recorder.skipped(), recorder.lost(), wrong(tune, recorded)));
+        }
+    }
+
+    /**
+     * Compare the notes recorded with the tune played, skipping notes out of
+     * range.
+     *
+     * @return the number of notes that were not recorded as played
+     */
+    static int wrong(Note[] tune, List<Note> recorded) {
+        int wrong = 0;
+        int r = 0;
+        for (Note n : tune) {
+            if (n.midiNum < 36 || n.midiNum > 95) {
+                continue; // more than two octaves from the middle octave when named with sharps
+            }
+            if (r >= recorded.size()) {
+                wrong++;
+                continue;
+            }
+            Note m = recorded.get(r++);
+            if (m.midiNum != n.midiNum || m.duration != n.duration || m.velocity != n.velocity) {
+                wrong++;
+            }
+        }
+        return wrong + (recorded.size() - r);
+    }
+}
@@ -0,0 +1,101 @@
+package symphonia;
+
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * A MIDI transmitter that plays back a recorded stream of events instead of
+ * a keyboard. It stands in for a real MIDI input, so that recording can be
+ * tested and timed on machines without one, and at rates no player could
+ * manage.
+ *
+ * Every event is sent with its recorded time stamp, so the notes recorded do
+ * not depend on how fast the events are replayed.
+ */
+class ReplayTransmitter implements Transmitter {
+
+    private final long[] times; // in microseconds
+    private final ShortMessage[] messages;
+    private Receiver receiver;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param times    the time stamp (in microseconds) of each event, in order
+     * @param messages the events
+     */
+    ReplayTransmitter(long[] times, ShortMessage[] messages) {
+        this.times = times;
+        this.messages = messages;
+    }
+
+    /**
+     * Create the events of a keyboard player playing a tune exactly in time:
+     * each key is released just as the next note is struck.
+     *
+     * @param tune          the notes to play, one after the other
+     * @param beat_duration the duration (in seconds) of one beat
+     * @return a transmitter that replays the tune
+     */
+    static ReplayTransmitter of(Note[] tune, double beat_duration) {
+        long[] times = new long[2 * tune.length];
+        ShortMessage[] messages = new ShortMessage[2 * tune.length];
+        double beat = 0;
+        try {
+            for (int i = 0; i < tune.length; i++) {
+                Note n = tune[i];
+                times[2 * i] = (long) (beat * beat_duration * 1e6);
+                messages[2 * i] = new ShortMessage(ShortMessage.NOTE_ON, 0, n.midiNum, n.velocity);
+                beat += n.duration;
+                times[2 * i + 1] = (long) (beat * beat_duration * 1e6);
+                messages[2 * i + 1] = new ShortMessage(ShortMessage.NOTE_OFF, 0, n.midiNum, 0);
+            }
+        } catch (InvalidMidiDataException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+        return new ReplayTransmitter(times, messages);
+    }
+
+    /**
+     * Get the number of events replayed.
+     *
+     * @return the number of events
+     */
+    int count() {
+        return messages.length;
+    }
+
+    /**
+     * Send every event to the receiver, on the calling thread.
+     *
+     * @param speed how many times faster than recorded to replay the events,
+     *              or 0 to send them as fast as possible
+     */
+    void replay(double speed) {
+        long start = System.nanoTime();
+        for (int i = 0; i < messages.length; i++) {
+            if (speed > 0) {
+                long due = start + (long) (times[i] * 1000 / speed);
+                long wait;
+                while ((wait = due - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            receiver.send(messages[i], times[i]);
+        }
+    }
+
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    public Receiver getReceiver() {
+        return receiver;
+    }
+
+    public void close() {
+    }
+}
@@ -0,0 +1,4 @@
+package symphonia.jmh_generated;
+public class CommandBenchmark_jmhType extends CommandBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package symphonia.jmh_generated;
+public class FileBenchmark_jmhType extends FileBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package symphonia.jmh_generated;
+public class LayoutBenchmark_jmhType extends LayoutBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,4 @@
+package symphonia.jmh_generated;
+public class NoteBenchmark_jmhType extends NoteBenchmark_jmhType_B3 {
+}
+
@@ -0,0 +1,197 @@
+package symphonia;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+
+/**
+ * Plays notes the moment they are added to a tune, so the user can hear what
+ * is being entered.
+ *
+ * Only a small, fixed set of pitches can occur in a tune (the seven note
+ * letters, with or without an accidental, up to two octaves above or below
+ * the middle octave), so a short sample of each is rendered with ToneSynth
+ * when audition is started. Since ToneSynth's output is proportional to the
+ * velocity, one sample per pitch serves for every dynamic. A mixer thread
+ * keeps an audio line fed with small blocks of samples, adding in the notes
+ * that have been triggered. Triggering a note only puts it in a queue, so it
+ * never blocks the caller (usually the event dispatch thread). The note is
+ * mixed into the next block, and the line holds only four blocks, so it is
+ * heard within about 7 ms. The time from triggering a note to mixing it is
+ * recorded as the "audition.latency" timer (see Metrics).
+ *
+ * There is one audition engine for the whole application, started the first
+ * time audition is switched on.
+ */
+class Audition {
+
+    // the range of MIDI numbers a note can have (Cb two octaves down to B# two octaves up)
+    static final int lowest = 35;
+    static final int highest = 96;
+
+    // the format of the samples written to the line
+    static final AudioFormat format = new AudioFormat(ToneSynth.sampleRate, 16, 1, true, false);
+
+    private static final double noteSeconds = 0.4;
+    private static final int blockFrames = 64; // about 1.5 ms of audio
+    private static final int maxVoices = 16;
+
+    private static Audition shared;
+
+    private final short[][] samples = new short[highest - lowest + 1][];
+    private final ConcurrentLinkedQueue<Trigger> triggered = new ConcurrentLinkedQueue<>();
+    private final SourceDataLine line;
+
+    // the notes sounding at the moment (only used by the mixer thread)
+    private final short[][] voiceSamples = new short[maxVoices][];
+    private final int[] voicePosition = new int[maxVoices];
+    private final int[] voiceVelocity = new int[maxVoices];
+
+    // a note waiting to be started by the mixer thread
+    private static final class Trigger {
+
+        final Note note;
+        final long time;
+
+        Trigger(Note note, long time) {
+            this.note = note;
+            this.time = time;
+        }
+    }
+
+    private Audition() throws LineUnavailableException {
+        this(openLine());
+    }
+
+    /**
+     * Parameterized constructor. Renders the samples and starts the mixer
+     * thread.
+     *
+     * @param line the line to play on, already open (in the format above) and started
+     */
+    Audition(SourceDataLine line) {
+        // render every possible pitch at full velocity
+        ToneSynth synth = new ToneSynth();
+        int length = (int) (noteSeconds * ToneSynth.sampleRate);
+        for (int midiNum = lowest; midiNum <= highest; midiNum++) {
+            byte[] pcm = synth.render(midiNum, 127, length);
+            short[] s = new short[length];
+            for (int i = 0; i < length; i++) {
+                s[i] = (short) ((pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8));
+            }
+            samples[midiNum - lowest] = s;
+        }
+
+        this.line = line;
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                mix();
+            }
+        }, "Symphonia audition");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        t.start();
+    }
+
+    // open a line with a buffer of only a couple of blocks, to keep latency low
+    private static SourceDataLine openLine() throws LineUnavailableException {
+        SourceDataLine line = AudioSystem.getSourceDataLine(format);
+        line.open(format, 4 * blockFrames * 2);
+        line.start();
+        return line;
+    }
+
+    /**
+     * Get the audition engine, starting it if necessary.
+     *
+     * @return the audition engine
+     * @throws LineUnavailableException if there is no audio output
+     */
+    static synchronized Audition get() throws LineUnavailableException {
+        if (shared == null) {
+            try {
+                shared = new Audition();
+            } catch (IllegalArgumentException ex) {
+                // no line supports the format (for example, there is no sound card)
+                LineUnavailableException lue = new LineUnavailableException(ex.getMessage());
+                lue.initCause(ex);
+                throw lue;
+            }
+        }
+        return shared;
+    }
+
+    /**
+     * Start playing a note (and the rest of its chord). Returns at once.
+     *
+     * @param n the note to play
+     */
+    void play(Note n) {
+        long time = Metrics.start();
+        trigger(n, time);
+        for (Note c : n.chord) {
+            trigger(c, time);
+        }
+    }
+
+    private void trigger(Note n, long time) {
+        if (n.midiNum >= lowest && n.midiNum <= highest) {
+            triggered.offer(new Trigger(n, time));
+        }
+    }
+
+    private void mix() {
+        int[] sum = new int[blockFrames];
+        byte[] block = new byte[2 * blockFrames];
+        while (true) {
+            // start the notes triggered since the last block, replacing the oldest if too many are playing
+            Trigger trigger;
+            while ((trigger = triggered.poll()) != null) {
+                int voice = 0;
+                for (int v = 0; v < maxVoices; v++) {
+                    if (voiceSamples[v] == null) {
+                        voice = v;
+                        break;
+                    }
+                    if (voicePosition[v] > voicePosition[voice]) {
+                        voice = v;
+                    }
+                }
+                voiceSamples[voice] = samples[trigger.note.midiNum - lowest];
+                voicePosition[voice] = 0;
+                voiceVelocity[voice] = trigger.note.velocity;
+                Metrics.record("audition.latency", trigger.time);
+            }
+
+            // add up the sounding notes
+            Arrays.fill(sum, 0);
+            for (int v = 0; v < maxVoices; v++) {
+                short[] s = voiceSamples[v];
+                if (s == null) {
+                    continue;
+                }
+                int pos = voicePosition[v];
+                int count = Math.min(blockFrames, s.length - pos);
+                int velocity = voiceVelocity[v];
+                for (int i = 0; i < count; i++) {
+                    sum[i] += s[pos + i] * velocity / 127;
+                }
+                voicePosition[v] = pos + count;
+                if (voicePosition[v] >= s.length) {
+                    voiceSamples[v] = null;
+                }
+            }
+            for (int i = 0; i < blockFrames; i++) {
+                int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sum[i]));
+                block[2 * i] = (byte) s;
+                block[2 * i + 1] = (byte) (s >> 8);
+            }
+
+            // blocks until the line has room, which paces the loop
+            line.write(block, 0, block.length);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package symphonia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs Symphonia without a window, for use in scripts and pipelines.
+ *
+ * Each command file given on the command line is run on its own tune, and the
+ * feedback of its commands is printed on standard output. If no files are
+ * given, commands are read from standard input (the "Symphonia Command File"
+ * line is then optional). MusicXML files (ending in .musicxml or .xml) are
+ * read as tunes rather than run. The resulting tunes can be exported as
+ * command files, MIDI files, WAV files and MusicXML files. Several files are
+ * processed at the same time (each in its own Session) on a bounded pool of
+ * worker threads; their feedback is printed in the order the files were
+ * given. Only a few files more than there are threads are started ahead of
+ * the one being printed, and only the end of the feedback of each file is
+ * kept (where its failure or its exports are reported), so a large batch
+ * takes no more memory than a small one.
+ *
+ * java -cp Symphonia.jar symphonia.Cli [--beat SECONDS] [--dynamic MARKING] [--threads N] [--export-commands DIR] [--export-midi DIR] [--export-wav DIR] [--export-musicxml DIR] [FILE...]
+ *
+ * Nothing in this class uses AWT or Swing, so it starts quickly and works on
+ * machines without a display.
+ */
+public class Cli {
+
+    private static final String usage = "Usage: Cli [--beat <seconds>] [--dynamic <marking>] [--threads <count>] [--export-commands <dir>] [--export-midi <dir>] [--export-wav <dir>] [--export-musicxml <dir>] [<command file>|<MusicXML file>...]";
+
+    // the most characters of feedback kept for each file, and the most files started ahead of the one printed (per thread)
+    private static final int maxFeedback = 16 * 1024;
+    private static final int filesAhead = 2;
+
+    private double beat_duration = 0.5;
+    private String dynamic = "mf";
+    private File commandsDir;
+    private File midiDir;
+    private File wavDir;
+    private File musicXmlDir;
+
+    /**
+     * Run the commands from one source and export the tune they produce.
+     *
+     * @param in        the commands to run
+     * @param hasHeader whether the commands start with the "Symphonia Command File" line
+     * @param name      the name to give the exported files (without extension)
+     * @param feedback  receives the feedback of every command and export
+     * @return true if all the commands were run and exported
+     * @throws IOException if the commands cannot be read or the exports cannot be written
+     */
+    boolean run(BufferedReader in, boolean hasHeader, String name, Consumer<String> feedback) throws IOException {
+        Session session = new Session(beat_duration, dynamic);
+        boolean ok = hasHeader ? CommandFile.run(in, session, feedback) : CommandFile.runCommands(in, session, feedback);
+        if (!ok) {
+            return false;
+        }
+        export(session, name, feedback);
+        return true;
+    }
+
+    /**
+     * Read a MusicXML file and export the tune in it.
+     *
+     * @param f        the MusicXML file
+     * @param name     the name to give the exported files (without extension)
+     * @param feedback receives the feedback of the import and every export
+     * @return true if the file was read and exported
+     * @throws IOException if the file cannot be read or the exports cannot be written
+     */
+    boolean runMusicXml(File f, String name, Consumer<String> feedback) throws IOException {
+        Session session = new Session(beat_duration, dynamic);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(f))) {
+            if (!MusicXml.read(in, session, feedback)) {
+                return false;
+            }
+        }
+        export(session, name, feedback);
+        return true;
+    }
+
+    // export a tune in every format asked for
+    private void export(Session session, String name, Consumer<String> feedback) throws IOException {
+        List<Tune> voices = session.voices;
+        if (commandsDir != null) {
+            try (Writer w = new FileWriter(new File(commandsDir, name + ".txt"))) {
+                CommandFile.write(voices, w);
+            }
+            feedback.accept("Exported command file " + name + ".txt\n");
+        }
+        if (midiDir != null) {
+            MidiFile.write(voices, beat_duration, new File(midiDir, name + ".mid"));
+            feedback.accept("Exported MIDI file " + name + ".mid\n");
+        }
+        if (wavDir != null) {
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(wavDir, name + ".wav")))) {
+                new ToneSynth().writeWav(voices, beat_duration, out);
+            }
+            feedback.accept("Exported WAV file " + name + ".wav\n");
+        }
+        if (musicXmlDir != null) {
+            long start = System.nanoTime();
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(musicXmlDir, name + ".musicxml")))) {
+                MusicXml.write(voices, out);
+            }
+            feedback.accept("Exported MusicXML file " + name + ".musicxml ("
+                    + MusicXml.throughput(Tune.totalSize(voices), System.nanoTime() - start) + ")\n");
+        }
+    }
+
+    /**
+     * The entry point of the command line interface.
+     *
+     * @param args command line arguments; see the usage message
+     */
+    public static void main(String[] args) throws InterruptedException, IOException {
+        final Cli cli = new Cli();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // parse command line arguments
+        List<File> files = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--beat")) {
+                    cli.beat_duration = Double.parseDouble(args[++i]);
+                    if (cli.beat_duration <= 0) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--dynamic")) {
+                    cli.dynamic = args[++i];
+                    if (!Note.dynamicToVelocity.containsKey(cli.dynamic)) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                    if (threads < 1) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--export-commands")) {
+                    cli.commandsDir = directory(args[++i]);
+                } else if (args[i].equals("--export-midi")) {
+                    cli.midiDir = directory(args[++i]);
+                } else if (args[i].equals("--export-wav")) {
+                    cli.wavDir = directory(args[++i]);
+                } else if (args[i].equals("--export-musicxml")) {
+                    cli.musicXmlDir = directory(args[++i]);
+                } else if (args[i].startsWith("--")) {
+                    throw new IllegalArgumentException();
+                } else {
+                    files.add(new File(args[i]));
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+
+        // read commands from standard input if no files are given
+        if (files.isEmpty()) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+            boolean ok = cli.run(in, startsWithHeader(in), "stdin", new Consumer<String>() {
+                public void accept(String text) {
+                    System.out.print(text);
+                }
+            });
+            System.out.flush();
+            System.exit(ok ? 0 : 1);
+        }
+
+        // process the files in parallel, printing the feedback of each file in order; a file is only
+        // started once the files more than a few ahead of it have been printed
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()));
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        int printed = 0;
+        int failed = 0;
+        for (File f : files) {
+            if (pending.size() == filesAhead * threads) {
+                failed += print(files.get(printed++), pending.remove());
+            }
+            pending.add(pool.submit(process(cli, f)));
+        }
+        while (!pending.isEmpty()) {
+            failed += print(files.get(printed++), pending.remove());
+        }
+        pool.shutdown();
+        System.out.flush();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // the work of processing one file, giving the end of its feedback (or failing with it)
+    private static Callable<String> process(final Cli cli, final File f) {
+        return new Callable<String>() {
+            public String call() throws IOException {
+                FeedbackTail feedback = new FeedbackTail();
+                String fileName = f.getName();
+                boolean musicXml = fileName.endsWith(".musicxml") || fileName.endsWith(".xml");
+                String name = (musicXml || fileName.endsWith(".txt")) ? fileName.substring(0, fileName.lastIndexOf('.')) : fileName;
+                boolean ok;
+                if (musicXml) {
+                    ok = cli.runMusicXml(f, name, feedback);
+                } else {
+                    try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+                        ok = cli.run(in, true, name, feedback);
+                    }
+                }
+                if (!ok) {
+                    throw new IOException(feedback.toString());
+                }
+                return feedback.toString();
+            }
+        };
+    }
+
+    // whether the input starts with the "Symphonia Command File" line, leaving it unread (only the first
+    // characters are looked at, as a first line longer than the header cannot be it)
+    private static boolean startsWithHeader(BufferedReader in) throws IOException {
+        int length = CommandFile.HEADER.length();
+        char[] start = new char[length + 1];
+        in.mark(start.length);
+        int read = 0;
+        while (read < start.length) {
+            int r = in.read(start, read, start.length - read);
+            if (r < 0) {
+                break;
+            }
+            read += r;
+        }
+        in.reset();
+        return read >= length && new String(start, 0, length).equalsIgnoreCase(CommandFile.HEADER)
+                && (read == length || start[length] == '\n' || start[length] == '\r');
+    }
+
+    // print the feedback of a file once it has been processed, returning 1 if it failed (0 otherwise)
+    private static int print(File f, Future<String> result) throws InterruptedException {
+        System.out.println("== " + f);
+        try {
+            System.out.print(result.get());
+            return 0;
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            System.out.print((cause.getMessage() != null) ? cause.getMessage() : cause + "\n");
+            System.out.println("Failed: " + f);
+            return 1;
+        }
+    }
+
+    /**
+     * Keeps the last lines of feedback, up to maxFeedback characters, and
+     * counts the lines left out before them.
+     */
+    private static final class FeedbackTail implements Consumer<String> {
+
+        private final StringBuilder text = new StringBuilder();
+        private long linesLeftOut = 0;
+
+        public void accept(String feedback) {
+            text.append(feedback);
+            if (text.length() > 2 * maxFeedback) {
+                trim();
+            }
+        }
+
+        // drop whole lines from the start, until at most maxFeedback characters are left
+        private void trim() {
+            int cut = text.length() - maxFeedback;
+            int lineEnd = text.indexOf("\n", cut - 1);
+            cut = (lineEnd < 0) ? cut : lineEnd + 1;
+            for (int i = 0; i < cut; i++) {
+                if (text.charAt(i) == '\n') {
+                    linesLeftOut++;
+                }
+            }
+            text.delete(0, cut);
+        }
+
+        @Override
+        public String toString() {
+            if (text.length() > maxFeedback) {
+                trim();
+            }
+            return (linesLeftOut > 0) ? "... (" + linesLeftOut + " lines of feedback left out)\n" + text : text.toString();
+        }
+    }
+
+    private static File directory(String path) {
+        File dir = new File(path);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalArgumentException();
+        }
+        return dir;
+    }
+}
@@ -0,0 +1,213 @@
+package symphonia;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Runs the commands of the desktop application on a worker thread, so that
+ * long commands (such as playing or importing a tune) do not hold up the
+ * Swing event dispatch thread.
+ *
+ * Commands are queued in the order they are submitted and run one at a time
+ * by a single worker thread, which is the only thread that uses the session.
+ * Commands can be submitted while another is still running (they run after
+ * it), and the running command can be cancelled (see cancel()).
+ *
+ * The feedback of the commands is passed back to the event dispatch thread,
+ * but commands that finish in quick succession do not each post an update:
+ * their feedback is collected, and one update is posted for all of it. When
+ * the queue runs empty after commands have changed the tune, the view is told
+ * once, from the worker thread (so the tune is only ever read by the thread
+ * that changes it).
+ */
+class CommandExecutor {
+
+    private final Session session;
+    private final Runnable tuneChanged;
+    private Consumer<String> feedback;
+    private final LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private final AtomicInteger unfinished = new AtomicInteger(); // commands queued or running
+
+    // the feedback not yet passed to the event dispatch thread (guarded by this)
+    private final StringBuilder pending = new StringBuilder();
+    private boolean flushPosted; // guarded by this
+    private boolean running; // guarded by this
+
+    // the state of the session after the last command, for the event dispatch thread
+    private volatile boolean addmode;
+    private volatile boolean audition;
+    private volatile boolean recording;
+
+    // passes the collected feedback to the event dispatch thread
+    private final Runnable flush = new Runnable() {
+        public void run() {
+            String text;
+            synchronized (CommandExecutor.this) {
+                text = pending.toString();
+                pending.setLength(0);
+                flushPosted = false;
+            }
+            feedback.accept(text);
+        }
+    };
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param session     the session to run the commands in
+     * @param tuneChanged run on the worker thread when commands have changed the tune
+     */
+    CommandExecutor(Session session, Runnable tuneChanged) {
+        this.session = session;
+        this.tuneChanged = tuneChanged;
+        updateState();
+        worker = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "Symphonia commands");
+        worker.setDaemon(true);
+    }
+
+    /**
+     * Start running commands. From now on, the session is only used by the
+     * worker thread.
+     *
+     * @param feedback receives the feedback of the commands, on the event dispatch thread
+     */
+    void start(Consumer<String> feedback) {
+        this.feedback = feedback;
+        worker.start();
+    }
+
+    /**
+     * Queue a command statement, exactly as entered by the user.
+     *
+     * @param input the command statement
+     */
+    void submit(final String input) {
+        submit(new Runnable() {
+            public void run() {
+                output(session.execute(input));
+            }
+        });
+    }
+
+    /**
+     * Queue any other work on the session (such as importing a file). The
+     * work is run on the worker thread, and can give feedback with output().
+     *
+     * @param task the work to run
+     */
+    void submit(Runnable task) {
+        unfinished.incrementAndGet();
+        queue.add(task);
+    }
+
+    /**
+     * Give feedback to the user. Called by tasks on the worker thread.
+     *
+     * @param text the feedback
+     */
+    void output(String text) {
+        synchronized (this) {
+            pending.append(text);
+            if (flushPosted) {
+                return;
+            }
+            flushPosted = true;
+        }
+        SwingUtilities.invokeLater(flush);
+    }
+
+    /**
+     * Stop the command that is running, if any. Commands that stop (such as
+     * play and importing a file) do so as soon as possible; the commands
+     * queued after it still run.
+     */
+    synchronized void cancel() {
+        if (running) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Check whether a command is running or waiting to run.
+     *
+     * @return true if the executor is busy
+     */
+    boolean isBusy() {
+        return unfinished.get() > 0;
+    }
+
+    /**
+     * Check whether add mode was on after the last command.
+     *
+     * @return true if add mode is on
+     */
+    boolean isAddmode() {
+        return addmode;
+    }
+
+    /**
+     * Check whether audition was on after the last command.
+     *
+     * @return true if audition is on
+     */
+    boolean isAudition() {
+        return audition;
+    }
+
+    /**
+     * Check whether recording was on after the last command.
+     *
+     * @return true if recording is on
+     */
+    boolean isRecording() {
+        return recording;
+    }
+
+    private void work() {
+        Tune shownTune = session.tune;
+        long shownVersion = session.tune.version();
+        while (true) {
+            Runnable task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException ex) {
+                continue; // cannot happen: only a running command is cancelled
+            }
+            synchronized (this) {
+                running = true;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                output("Error: " + ex + "\n");
+            } finally {
+                synchronized (this) {
+                    running = false;
+                    Thread.interrupted(); // a cancel is only for the command it was meant for
+                }
+            }
+
+            if (queue.isEmpty() && (session.tune != shownTune || session.tune.version() != shownVersion)) {
+                shownTune = session.tune;
+                shownVersion = session.tune.version();
+                tuneChanged.run();
+            }
+            updateState();
+            unfinished.decrementAndGet();
+            output(""); // so the event dispatch thread sees the new state even if there was no feedback
+        }
+    }
+
+    private void updateState() {
+        addmode = session.isAddmode();
+        audition = session.isAudition();
+        recording = session.isRecording();
+    }
+}
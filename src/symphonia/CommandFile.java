@@ -0,0 +1,146 @@
+package symphonia;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Reading and writing of command files.
+ *
+ * A command file is a text file starting with the line "Symphonia Command
+ * File", followed by one command per line, exactly as they would be entered by
+ * the user. Exporting a tune produces a command file made of "add" and "chord"
+ * commands (with "instrument" commands where the instrument changes, and
+ * "voice" commands between voices), which can be imported again to recover
+ * the tune.
+ */
+class CommandFile {
+
+    // all command files MUST start with this line
+    static final String HEADER = "Symphonia Command File";
+
+    /**
+     * Run every command in a command file, in order.
+     *
+     * The commands change the tune (and the settings) of a session just as if
+     * they had been typed in by the user. Running stops at the first command
+     * that does not exist.
+     *
+     * @param in       the contents of the command file
+     * @param session  the session to run the commands in
+     * @param feedback receives the feedback of every command
+     * @return true if all the commands in the file were run, false if the file
+     *         is not a valid command file or contains an unknown command
+     * @throws IOException if the file cannot be read
+     */
+    static boolean run(BufferedReader in, Session session, Consumer<String> feedback) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            feedback.accept("File is empty.\n");
+            return false;
+        }
+        if (!line.equalsIgnoreCase(HEADER)) {
+            feedback.accept("Invalid File: All command files must start with \"" + HEADER + "\".\n");
+            return false;
+        }
+        return runCommands(in, session, feedback);
+    }
+
+    /**
+     * Run commands read one per line, in order, as in the body of a command
+     * file (that is, without the "Symphonia Command File" line).
+     *
+     * @param in       the commands to run
+     * @param session  the session to run the commands in
+     * @param feedback receives the feedback of every command
+     * @return true if all the commands were run, false if there was an
+     *         unknown command or the thread was interrupted
+     * @throws IOException if the commands cannot be read
+     */
+    static boolean runCommands(BufferedReader in, Session session, Consumer<String> feedback) throws IOException {
+        long start = Metrics.start();
+        long lines = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("")) {
+                continue;
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // stopped by the user (see CommandExecutor)
+                feedback.accept("Stopped.\n");
+                return false;
+            }
+            lines++;
+
+            String command = Session.commandName(line);
+
+            if (command.equals("exit")) {
+                feedback.accept("Cannot exit from a command file.");
+            } else if (line.equals("addmode on") || line.equals("addmode off") || session.isAddmode() || Session.isCommand(command)) {
+                feedback.accept(session.execute(line));
+            } else {
+                feedback.accept(command + " - No such command (yet).\n");
+                return false;
+            }
+        }
+        Metrics.record("import.commands", start, lines);
+        return true;
+    }
+
+    /**
+     * Write a tune as a command file. Each note is written as an "add" (or
+     * "chord") command giving all of its properties, preceded by an
+     * "instrument" command if it is played on another instrument than the
+     * note before it. Every voice after the first starts with a "voice"
+     * command.
+     *
+     * @param voices the voices of the tune, each a list of notes
+     * @param out    the destination of the command file
+     * @throws IOException if the command file cannot be written
+     */
+    static void write(List<? extends List<Note>> voices, Writer out) throws IOException {
+        long start = Metrics.start();
+        out.write(HEADER + "\n");
+        int program = 0;
+        for (int v = 0; v < voices.size(); v++) {
+            if (v > 0) {
+                out.write("voice " + (v + 1) + "\n");
+            }
+            for (Note n : voices.get(v)) {
+                if (n.program != program) {
+                    program = n.program;
+                    out.write("instrument " + program + "\n");
+                }
+                write(n, out);
+            }
+        }
+        if (voices.size() > 1) {
+            out.write("voice 1\n"); // so that the first voice is edited after importing
+        }
+        out.flush();
+        Metrics.record("export.commands", start, Tune.totalSize(voices));
+    }
+
+    /**
+     * Write a single note as an "add" command line, or a chord as a "chord"
+     * command line.
+     *
+     * @param n   the note to write
+     * @param out the destination of the command file
+     * @throws IOException if the command cannot be written
+     */
+    static void write(Note n, Writer out) throws IOException {
+        if (n.chord.length > 0) {
+            StringBuilder line = new StringBuilder("chord ").append(n.pitchName());
+            for (Note c : n.chord) {
+                line.append(' ').append(c.pitchName());
+            }
+            out.write(line.append(' ').append(n.duration).append(' ').append(n.dynamic_marking).append('\n').toString());
+            return;
+        }
+        String deltaOctave = (n.deltaOctave >= 0) ? "+" + n.deltaOctave : Integer.toString(n.deltaOctave);
+        out.write("add " + n.noteName + " " + n.duration + " " + deltaOctave + " " + n.dynamic_marking + "\n");
+    }
+}
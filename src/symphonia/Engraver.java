@@ -0,0 +1,274 @@
+package symphonia;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import javax.imageio.ImageIO;
+
+/**
+ * Engraves tunes as pages of sheet music, without any window being shown.
+ *
+ * Each tune is laid out for the width of a page, and its systems are then
+ * split into pages of the configured height. Pages are written as PNG images
+ * or as SVG documents. This class can also be run on its own to engrave every
+ * command file in a directory, using a pool of worker threads:
+ *
+ * java -Djava.awt.headless=true -cp Symphonia.jar symphonia.Engraver [--format png|svg] [--page WIDTHxHEIGHT] [--threads N] input-directory output-directory
+ */
+public class Engraver {
+
+    private static final String usage = "Usage: Engraver [--format png|svg] [--page <width>x<height>] [--threads <count>] <input directory> <output directory>";
+
+    // the space left empty around the systems on each page
+    private static final int margin = 40;
+
+    private final int pageWidth;
+    private final int pageHeight;
+    private final String format;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param pageWidth  the width of each page, in pixels
+     * @param pageHeight the height of each page, in pixels
+     * @param format     "png" or "svg"
+     */
+    public Engraver(int pageWidth, int pageHeight, String format) {
+        this.pageWidth = pageWidth;
+        this.pageHeight = pageHeight;
+        this.format = format;
+    }
+
+    /**
+     * Engrave a tune, writing one file for each page. The files are called
+     * name-1.png, name-2.png and so on (or .svg).
+     *
+     * @param notes    the notes of the tune
+     * @param outDir   the directory to write the pages to
+     * @param name     the name to give the page files
+     * @param renderer the renderer to draw with; not to be shared with other threads
+     * @return the number of pages written
+     * @throws IOException if a page cannot be written
+     */
+    public int engrave(List<Note> notes, File outDir, String name, ScoreRenderer renderer) throws IOException {
+        ScoreLayout l = layout(notes);
+        int[] pages = paginate(l);
+        for (int page = 0; page < pages.length - 1; page++) {
+            File f = new File(outDir, name + "-" + (page + 1) + "." + format);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+                writePage(l, pages, page, renderer, out);
+            }
+        }
+        return pages.length - 1;
+    }
+
+    /**
+     * Lay out a tune for the width of a page.
+     *
+     * @param notes the notes of the tune
+     * @return the layout of the tune
+     */
+    ScoreLayout layout(List<Note> notes) {
+        return ScoreLayout.compute(notes, pageWidth);
+    }
+
+    /**
+     * Write one page of a score, as a PNG image or an SVG document.
+     *
+     * @param l        the layout of the tune
+     * @param pages    the pages of the layout, as returned by paginate
+     * @param page     the index of the page to write (starting from 0)
+     * @param renderer the renderer to draw with; not to be shared with other threads
+     * @param out      the stream to write the page to
+     * @throws IOException if the page cannot be written
+     */
+    void writePage(ScoreLayout l, int[] pages, int page, ScoreRenderer renderer, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        if (format.equals("svg")) {
+            StringBuilder svg = new StringBuilder();
+            SvgGraphics g2 = new SvgGraphics(svg, pageWidth, pageHeight);
+            renderPage(g2, l, pages[page], pages[page + 1], renderer);
+            g2.finish();
+            Writer w = new OutputStreamWriter(out, "UTF-8");
+            w.write(svg.toString());
+            w.flush();
+        } else {
+            BufferedImage img = new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2 = img.createGraphics();
+            g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2.setColor(Color.WHITE);
+            g2.fillRect(0, 0, pageWidth, pageHeight);
+            g2.setColor(Color.BLACK);
+            renderPage(g2, l, pages[page], pages[page + 1], renderer);
+            g2.dispose();
+            ImageIO.write(img, "png", out);
+        }
+        Metrics.record("engrave.page", start);
+    }
+
+    /**
+     * Split the systems of a layout into pages.
+     *
+     * @param l the layout to split
+     * @return the index of the first system of each page, followed by the
+     *         number of systems; an empty tune gets one (empty) page
+     */
+    int[] paginate(ScoreLayout l) {
+        List<Integer> starts = new ArrayList<>();
+        int start = 0;
+        do {
+            starts.add(start);
+            int end = start + 1;
+            while (end < l.systemCount() && l.systemBottom(end) - l.systemTop(start) <= pageHeight - 2 * margin) {
+                end++;
+            }
+            start = end;
+        } while (start < l.systemCount());
+
+        int[] pages = new int[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            pages[i] = starts.get(i);
+        }
+        pages[starts.size()] = l.systemCount();
+        return pages;
+    }
+
+    private void renderPage(Graphics2D g2, ScoreLayout l, int first, int end, ScoreRenderer renderer) {
+        if (first >= l.systemCount()) {
+            return;
+        }
+        // move the first system of the page to the top margin
+        g2.translate(0, margin - l.systemTop(first));
+        for (int s = first; s < end; s++) {
+            renderer.paintSystem(g2, l, s);
+        }
+    }
+
+    /**
+     * Load the tune in a command file. Only the first voice of the tune is
+     * engraved.
+     *
+     * @param f the command file to load
+     * @return the notes of the first voice, or null if the file is not a valid command file
+     * @throws IOException if the file cannot be read
+     */
+    static Note[] load(File f) throws IOException {
+        Session session = new Session(1, "mf");
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            boolean loaded = CommandFile.run(in, session, new Consumer<String>() {
+                public void accept(String text) {
+                }
+            });
+            return loaded ? session.voices.get(0).snapshot() : null;
+        }
+    }
+
+    /**
+     * Engrave every command file (*.txt) in a directory.
+     *
+     * @param args command line arguments; see the usage message
+     */
+    public static void main(String[] args) throws InterruptedException {
+        String format = "png";
+        int pageWidth = 794; // A4 at 96 dots per inch
+        int pageHeight = 1123;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        // parse command line arguments
+        List<String> dirs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--format")) {
+                    format = args[++i];
+                    if (!format.equals("png") && !format.equals("svg")) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--page")) {
+                    String[] size = args[++i].split("x");
+                    pageWidth = Integer.parseInt(size[0]);
+                    pageHeight = Integer.parseInt(size[1]);
+                } else if (args[i].equals("--threads")) {
+                    threads = Integer.parseInt(args[++i]);
+                } else {
+                    dirs.add(args[i]);
+                }
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            dirs.clear();
+        }
+        if (dirs.size() != 2 || threads < 1 || pageWidth < 200 || pageHeight < 200) {
+            System.err.println(usage);
+            System.exit(1);
+        }
+
+        File inDir = new File(dirs.get(0));
+        final File outDir = new File(dirs.get(1));
+        File[] files = inDir.listFiles();
+        if (files == null) {
+            System.err.println("Cannot read directory: " + inDir);
+            System.exit(1);
+        }
+        Arrays.sort(files);
+        outDir.mkdirs();
+
+        // engrave the files in parallel; each worker thread draws with its own renderer
+        final Engraver engraver = new Engraver(pageWidth, pageHeight, format);
+        final ThreadLocal<ScoreRenderer> renderers = new ThreadLocal<ScoreRenderer>() {
+            @Override
+            protected ScoreRenderer initialValue() {
+                return new ScoreRenderer();
+            }
+        };
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (final File f : files) {
+            if (!f.isFile() || !f.getName().endsWith(".txt")) {
+                continue;
+            }
+            results.add(pool.submit(new Callable<String>() {
+                public String call() throws IOException {
+                    Note[] notes = load(f);
+                    if (notes == null) {
+                        return f.getName() + ": not a valid command file.";
+                    }
+                    String name = f.getName().substring(0, f.getName().length() - 4);
+                    int pages = engraver.engrave(Arrays.asList(notes), outDir, name, renderers.get());
+                    return f.getName() + ": " + notes.length + " notes, " + pages + " page(s).";
+                }
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        for (Future<String> result : results) {
+            try {
+                System.out.println(result.get());
+            } catch (ExecutionException ex) {
+                failed++;
+                System.out.println("Failed: " + ex.getCause());
+            }
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        System.out.println("Engraved " + (results.size() - failed) + " of " + results.size() + " file(s) in " + millis + " ms.");
+    }
+}
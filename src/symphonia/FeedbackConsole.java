@@ -0,0 +1,227 @@
+package symphonia;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import javax.swing.JTextArea;
+import javax.swing.Timer;
+
+/**
+ * The feedback area of the desktop application: shows the feedback of the
+ * commands, without letting it grow without limit.
+ *
+ * Only the last maxEntries lines are kept, in a ring buffer. A line of the
+ * same kind as the one before it (the same text before ": ", or the same text
+ * if it has no ": ") is not added, but counted, so importing a file of 10000
+ * notes shows a single line, "Added note: ... x10000" (with a multiplication
+ * sign), rather than 10000 lines. The text area is not changed for every
+ * message: messages only go into the buffer (from any thread), and the text
+ * area is updated from it at most every frameMillis, and only if something
+ * was added.
+ *
+ * If a log file is given, every line is also written to it in full. When the
+ * file reaches logMaxBytes it is renamed to file.1 (file.1 to file.2 and so
+ * on, keeping logFiles old files) and a new file is started.
+ */
+class FeedbackConsole {
+
+    // the most lines kept and shown
+    static final int maxEntries = 1000;
+
+    // the time (in milliseconds) between updates of the text area (about 30 a second)
+    static final int frameMillis = 33;
+
+    // the size of a log file before it is rotated, and the number of old log files kept
+    static final long logMaxBytes = 1 << 20;
+    static final int logFiles = 3;
+
+    // a line, or several lines of the same kind in a row
+    private static final class Entry {
+
+        final String kind;
+        String text; // the last of the lines
+        long count = 1;
+        boolean same = true; // whether all the lines were exactly the same
+
+        Entry(String kind, String text) {
+            this.kind = kind;
+            this.text = text;
+        }
+    }
+
+    private final JTextArea area = new JTextArea();
+
+    // guarded by this
+    private final Entry[] entries = new Entry[maxEntries];
+    private int first = 0;
+    private int size = 0;
+    private final StringBuilder partial = new StringBuilder(); // the text after the last line break
+    private boolean changed = false;
+
+    private final File logFile;
+    private Writer log; // guarded by this (null if there is no log, or it could not be written)
+    private long logBytes;
+
+    /**
+     * Parameterized constructor. Must be called on the event dispatch thread.
+     *
+     * @param logFile the file to write every line to, or null for none
+     */
+    FeedbackConsole(File logFile) {
+        this.logFile = logFile;
+        area.setEditable(false);
+        if (logFile != null) {
+            try {
+                log = new BufferedWriter(new FileWriter(logFile, true));
+                logBytes = logFile.length();
+                Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+                    public void run() {
+                        flushLog();
+                    }
+                }));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        new Timer(frameMillis, new ActionListener() {
+            public void actionPerformed(ActionEvent e) {
+                show();
+            }
+        }).start();
+    }
+
+    /**
+     * Get the text area that shows the feedback, to put in a window.
+     *
+     * @return the text area (not editable)
+     */
+    JTextArea view() {
+        return area;
+    }
+
+    /**
+     * Add feedback. May be called on any thread; the text is shown at the
+     * next update of the text area.
+     *
+     * @param text the feedback (any number of lines)
+     */
+    synchronized void append(String text) {
+        int start = 0;
+        int end;
+        while ((end = text.indexOf('\n', start)) >= 0) {
+            partial.append(text, start, end);
+            addLine(partial.toString());
+            partial.setLength(0);
+            start = end + 1;
+        }
+        partial.append(text, start, text.length());
+        changed = true;
+    }
+
+    private void addLine(String line) {
+        writeLog(line);
+
+        int colon = line.indexOf(": ");
+        String kind = (colon > 0) ? line.substring(0, colon) : line;
+        Entry last = (size > 0) ? entries[(first + size - 1) % maxEntries] : null;
+        if (last != null && last.kind.equals(kind)) {
+            last.same = last.same && last.text.equals(line);
+            last.text = line;
+            last.count++;
+            return;
+        }
+
+        Entry e = new Entry(kind, line);
+        if (size < maxEntries) {
+            entries[(first + size) % maxEntries] = e;
+            size++;
+        } else {
+            // the buffer is full: replace the oldest line
+            entries[first] = e;
+            first = (first + 1) % maxEntries;
+        }
+    }
+
+    // update the text area from the buffer, if anything has been added (on the event dispatch thread)
+    private void show() {
+        String text;
+        synchronized (this) {
+            if (!changed) {
+                return;
+            }
+            changed = false;
+            flushLog();
+
+            StringBuilder b = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                Entry e = entries[(first + i) % maxEntries];
+                if (e.count == 1 || e.text.isEmpty()) {
+                    b.append(e.text);
+                } else if (e.same) {
+                    b.append(e.text).append(" \u00d7").append(e.count);
+                } else {
+                    b.append(e.kind).append(": \u2026 \u00d7").append(e.count)
+                            .append(" (last: ").append(e.text, e.kind.length() + 2, e.text.length()).append(')');
+                }
+                b.append('\n');
+            }
+            text = b.append(partial).toString();
+        }
+        long start = Metrics.start();
+        area.setText(text);
+        area.setCaretPosition(text.length()); // scroll to the newest feedback
+        Metrics.record("feedback.show", start);
+    }
+
+    private synchronized void flushLog() {
+        if (log != null) {
+            try {
+                log.flush();
+            } catch (IOException ex) {
+                closeLog(ex);
+            }
+        }
+    }
+
+    private void writeLog(String line) {
+        if (log == null) {
+            return;
+        }
+        try {
+            if (logBytes + line.length() + 1 > logMaxBytes) {
+                // rotate: file.2 becomes file.3, file.1 becomes file.2, file becomes file.1
+                log.close();
+                for (int i = logFiles - 1; i >= 0; i--) {
+                    File from = (i == 0) ? logFile : new File(logFile.getPath() + "." + i);
+                    File to = new File(logFile.getPath() + "." + (i + 1));
+                    if (from.exists()) {
+                        to.delete();
+                        from.renameTo(to);
+                    }
+                }
+                log = new BufferedWriter(new FileWriter(logFile));
+                logBytes = 0;
+            }
+            log.write(line);
+            log.write('\n');
+            logBytes += line.length() + 1;
+        } catch (IOException ex) {
+            closeLog(ex);
+        }
+    }
+
+    // stop writing the log after an error
+    private void closeLog(IOException cause) {
+        cause.printStackTrace();
+        try {
+            log.close();
+        } catch (IOException ex) {
+            // ignore: the log is being given up anyway
+        }
+        log = null;
+    }
+}
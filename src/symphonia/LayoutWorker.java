@@ -0,0 +1,121 @@
+package symphonia;
+
+import java.util.Arrays;
+import javax.swing.SwingUtilities;
+
+/**
+ * Computes score layouts on a background thread, so that laying out a long
+ * tune does not hold up the Swing event dispatch thread.
+ *
+ * Requests carry a snapshot of the tune (which is never changed afterwards),
+ * so the worker does not need to touch the tune itself. Only the newest
+ * request is remembered: if several requests arrive while a layout is being
+ * computed, only the last of them is computed next. Each layout is computed
+ * from the previous one, so only the systems from the first changed note on
+ * are laid out again. Each completed layout is published as an immutable
+ * ScoreLayout, and a listener is then run on the event dispatch thread so the
+ * view can repaint the part of the score that changed.
+ */
+class LayoutWorker {
+
+    private final Runnable onLayout;
+    private final Object lock = new Object();
+
+    // the newest request that has not been started yet (guarded by lock)
+    private Note[] pendingNotes;
+    private double pendingWidth;
+
+    private Tune requestedTune; // guarded by lock
+    private long requestedVersion = -1; // guarded by lock
+    private double changedTop = Double.MAX_VALUE; // guarded by lock
+    private volatile ScoreLayout latest;
+
+    /**
+     * Parameterized constructor. Starts the worker thread.
+     *
+     * @param onLayout the action to run on the event dispatch thread every
+     *                 time a new layout is available
+     */
+    LayoutWorker(Runnable onLayout) {
+        this.onLayout = onLayout;
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                work();
+            }
+        }, "Symphonia layout");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Ask for a tune to be laid out. Does nothing if a layout of the same
+     * version of the same tune (voice) has already been requested.
+     *
+     * @param tune  the tune to lay out
+     * @param width the width of the score
+     */
+    void request(Tune tune, double width) {
+        synchronized (lock) {
+            if (tune == requestedTune && tune.version() == requestedVersion) {
+                return;
+            }
+            requestedTune = tune;
+            requestedVersion = tune.version();
+            pendingNotes = tune.snapshot();
+            pendingWidth = width;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Get the most recently completed layout.
+     *
+     * @return the latest layout, or null if no layout has been completed yet
+     */
+    ScoreLayout latest() {
+        return latest;
+    }
+
+    /**
+     * Find out which part of the score has changed since the last call, over
+     * all the layouts completed in the meantime.
+     *
+     * @return the y co-ordinate below which the score has to be repainted, or
+     *         Double.MAX_VALUE if nothing has changed
+     */
+    double takeChangedTop() {
+        synchronized (lock) {
+            double top = changedTop;
+            changedTop = Double.MAX_VALUE;
+            return top;
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Note[] notes;
+            double width;
+            synchronized (lock) {
+                while (pendingNotes == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                notes = pendingNotes;
+                width = pendingWidth;
+                pendingNotes = null;
+            }
+
+            long start = Metrics.start();
+            ScoreLayout computed = ScoreLayout.update(latest, Arrays.asList(notes), width);
+            Metrics.record("layout", start, notes.length);
+            synchronized (lock) {
+                changedTop = Math.min(changedTop, computed.changedTop());
+            }
+            latest = computed;
+            SwingUtilities.invokeLater(onLayout);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package symphonia;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.geom.Ellipse2D;
+import java.util.Arrays;
+import javax.swing.BorderFactory;
+import javax.swing.JPanel;
+
+/**
+ * The main panel of the application. The panel is as tall as the whole score
+ * and is meant to be shown inside a scroll pane; only the systems that are
+ * visible are drawn each time the panel is painted.
+ *
+ * Notes can also be edited on the score: clicking a note selects it, dragging
+ * it up or down moves it to another line or space, and keys change the
+ * selected note (see setExecutor). The note under the mouse is found with a
+ * ScoreIndex, so moving the mouse over a long score costs no more than over a
+ * short one.
+ */
+class MainPanel extends JPanel {
+
+    private static final long serialVersionUID = 1L;
+
+    // the dynamic markings, from the softest to the loudest
+    private static final String[] dynamics = {"pppp", "ppp", "pp", "p", "mp", "mf", "f", "ff", "fff", "ffff"};
+
+    private static final Color hoverColor = new Color(0, 0, 0, 24);
+    private static final Color selectColor = new Color(0, 90, 255, 48);
+
+    // draws the score; only used on the event dispatch thread
+    private final ScoreRenderer renderer = new ScoreRenderer();
+    private final Ellipse2D.Double ghost = new Ellipse2D.Double(); // where a dragged note will go
+
+    // the session whose tune is shown
+    private final Session session;
+
+    // computes the layout of the tune in the background
+    private final LayoutWorker layoutWorker;
+
+    // runs the commands that edit the notes picked on the score (null if the score cannot be edited)
+    private CommandExecutor executor;
+
+    // the following are only used on the event dispatch thread
+    private ScoreIndex index; // finds notes in the latest layout
+    private int hovered = -1; // the note under the mouse, or -1
+    private int selected = -1; // the note being edited, or -1
+    private int dragStartY;
+    private int dragSteps = 0; // the lines and spaces the selected note is being dragged up (down if negative)
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param session the session whose tune is shown
+     */
+    public MainPanel(Session session) {
+        this.session = session;
+        setBorder(BorderFactory.createLineBorder(Color.BLACK));
+        layoutWorker = new LayoutWorker(new Runnable() {
+            public void run() {
+                // grow or shrink the panel to fit the whole score, and show the changed part of the new layout
+                int h = (int) Math.ceil(layoutWorker.latest().height());
+                if (getPreferredSize().height != h) {
+                    setPreferredSize(new Dimension(Main.Screen.width, h));
+                    revalidate();
+                }
+                double top = layoutWorker.takeChangedTop();
+                if (top < Double.MAX_VALUE) {
+                    int y = (int) Math.floor(top);
+                    repaint(0, y, getWidth(), Math.max(getHeight() - y, 0));
+                }
+            }
+        });
+
+        MouseAdapter mouse = new MouseAdapter() {
+
+            public void mouseMoved(MouseEvent e) {
+                int note = noteAt(e);
+                if (note != hovered) {
+                    repaintNote(hovered);
+                    hovered = note;
+                    repaintNote(hovered);
+                }
+            }
+
+            public void mouseExited(MouseEvent e) {
+                repaintNote(hovered);
+                hovered = -1;
+            }
+
+            public void mousePressed(MouseEvent e) {
+                requestFocusInWindow();
+                select(noteAt(e));
+                dragStartY = e.getY();
+                dragSteps = 0;
+            }
+
+            public void mouseDragged(MouseEvent e) {
+                // every half staff distance is one line or space
+                int steps = (int) Math.round((dragStartY - e.getY()) / (ScoreLayout.staffDistance / 2.0));
+                if (selected >= 0 && steps != dragSteps) {
+                    dragSteps = steps;
+                    repaintNote(selected);
+                }
+            }
+
+            public void mouseReleased(MouseEvent e) {
+                Note n = note(selected);
+                if (n != null && dragSteps != 0) {
+                    edit("transpose " + selected + " " + selected + " " + String.format("%+d", semitonesToMove(n, dragSteps)));
+                }
+                dragSteps = 0;
+                repaintNote(selected);
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+
+        addKeyListener(new KeyAdapter() {
+
+            public void keyPressed(KeyEvent e) {
+                Note n = note(selected);
+                if (n == null) {
+                    return;
+                }
+                int duration = Arrays.binarySearch(Note.allowedDurations, n.duration);
+                int dynamic = Arrays.asList(dynamics).indexOf(n.dynamic_marking);
+                String range = selected + " " + selected + " ";
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_LEFT:
+                        select(Math.max(selected - 1, 0));
+                        return;
+                    case KeyEvent.VK_RIGHT:
+                        select(Math.min(selected + 1, getScoreLayout().notes.size() - 1));
+                        return;
+                    case KeyEvent.VK_ESCAPE:
+                        select(-1);
+                        return;
+                    case KeyEvent.VK_UP:
+                        edit("transpose " + range + "+1");
+                        return;
+                    case KeyEvent.VK_DOWN:
+                        edit("transpose " + range + "-1");
+                        return;
+                    case KeyEvent.VK_DELETE:
+                    case KeyEvent.VK_BACK_SPACE:
+                        edit("remove " + selected);
+                        return;
+                    default:
+                        break;
+                }
+                switch (e.getKeyChar()) {
+                    case '+':
+                    case '=':
+                        if (duration < Note.allowedDurations.length - 1) {
+                            edit("duration " + range + Note.allowedDurations[duration + 1]);
+                        }
+                        break;
+                    case '-':
+                        if (duration > 0) {
+                            edit("duration " + range + Note.allowedDurations[duration - 1]);
+                        }
+                        break;
+                    case 'f':
+                        if (dynamic < dynamics.length - 1) {
+                            edit("dynamic " + range + dynamics[dynamic + 1]);
+                        }
+                        break;
+                    case 'p':
+                        if (dynamic > 0) {
+                            edit("dynamic " + range + dynamics[dynamic - 1]);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Let the user edit the notes on the score, by running commands with an
+     * executor. Once a note has been selected by clicking it:
+     *
+     *   dragging it up or down moves it to another line or space
+     *   up and down arrows transpose it by a semitone
+     *   + and - make it longer or shorter (the next allowed duration)
+     *   f and p make it louder or softer (the next dynamic marking)
+     *   delete (or backspace) removes it
+     *   left and right arrows select the note before or after it
+     *   escape clears the selection
+     *
+     * @param executor the executor to run the commands with
+     */
+    void setExecutor(CommandExecutor executor) {
+        this.executor = executor;
+        setFocusable(true);
+    }
+
+    // the note at the mouse, or -1
+    private int noteAt(MouseEvent e) {
+        ScoreLayout l = getScoreLayout();
+        return (l == null) ? -1 : index(l).noteAt(e.getX(), e.getY());
+    }
+
+    // the note at an index of the latest layout, or null if there is none (any more)
+    private Note note(int i) {
+        ScoreLayout l = getScoreLayout();
+        return (l == null || i < 0 || i >= l.notes.size()) ? null : l.notes.get(i);
+    }
+
+    private ScoreIndex index(ScoreLayout l) {
+        if (index == null || index.layout != l) {
+            index = new ScoreIndex(l);
+        }
+        return index;
+    }
+
+    private void select(int i) {
+        repaintNote(selected);
+        selected = i;
+        repaintNote(selected);
+        Note n = note(i);
+        if (n != null && executor != null) {
+            executor.output("Selected note: " + i + " -- " + n.getName() + "\n");
+        }
+    }
+
+    private void edit(String command) {
+        if (executor != null) {
+            executor.submit(command);
+        }
+    }
+
+    // the semitones that move a note a number of lines and spaces up (keeping its sharp or flat)
+    private static int semitonesToMove(Note n, int steps) {
+        String[] letters = {"C", "D", "E", "F", "G", "A", "B"};
+        int dist = n.staffDistFromMidC() + steps;
+        int natural = Note.noteToMidiNum.get(letters[Math.floorMod(dist, 7)]) + 12 * Math.floorDiv(dist, 7);
+        int accidental = n.midiNum - (Note.noteToMidiNum.get(n.noteName.substring(0, 1)) + 12 * n.deltaOctave);
+        return natural + accidental - n.midiNum;
+    }
+
+    // repaint the column of the score a note is in
+    private void repaintNote(int i) {
+        ScoreLayout l = getScoreLayout();
+        if (l != null && i >= 0 && i < l.notes.size()) {
+            int x = (int) (index(l).centerX(i) - ScoreIndex.tolerance);
+            repaint(x, 0, (int) (2 * ScoreIndex.tolerance) + 1, getHeight());
+        }
+    }
+
+    // shade the column of a note within its system
+    private void paintMark(Graphics2D g2, ScoreLayout l, int i, Color color) {
+        if (i < 0 || i >= l.notes.size()) {
+            return;
+        }
+        int s = l.systemOf(i);
+        double x = index(l).centerX(i);
+        Color old = g2.getColor();
+        g2.setColor(color);
+        g2.fillRect((int) (x - ScoreIndex.tolerance), (int) l.systemTop(s), (int) (2 * ScoreIndex.tolerance), (int) (l.systemBottom(s) - l.systemTop(s)));
+
+        // while the note is dragged, show where it will go
+        if (i == selected && dragSteps != 0) {
+            double middleEY = l.staffTop(s) + 4 * ScoreLayout.staffDistance;
+            double y = ScoreLayout.centerY(middleEY, l.notes.get(i).staffDistFromMidC() + dragSteps);
+            ghost.setFrame(x - 5, y - 3.5, 10, 7);
+            g2.draw(ghost);
+        }
+        g2.setColor(old);
+    }
+
+    /**
+     * Let the panel know that the tune has changed. The tune is laid out again
+     * in the background, and the changed part of the score is repainted when
+     * the new layout is ready. Must be called by the thread using the session
+     * (the CommandExecutor's worker), since the tune is read.
+     */
+    void tuneChanged() {
+        layoutWorker.request(session.tune, Main.Screen.width);
+    }
+
+    /**
+     * Get the latest completed layout of the tune. The tune itself is not
+     * looked at, since it may be changing on the command worker thread; a new
+     * layout is shown once tuneChanged() has been called and the background
+     * worker has finished computing it.
+     *
+     * @return the latest layout of the session's tune, or null if none is ready yet
+     */
+    ScoreLayout getScoreLayout() {
+        return layoutWorker.latest();
+    }
+
+    /**
+     * The paint method for the main panel. This method paints the tune in sheet
+     * music form. Called automatically during runtime.
+     */
+    @Override
+    public void paint(Graphics g) {
+        long start = Metrics.start();
+        super.paint(g);
+        Graphics2D g2 = (Graphics2D) g;
+
+        ScoreLayout l = getScoreLayout();
+        if (l == null) {
+            return;
+        }
+
+        // paint only the systems that intersect the area being painted
+        Rectangle clip = g2.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        renderer.paint(g2, l, clip.getMinY(), clip.getMaxY());
+        paintMark(g2, l, hovered, hoverColor);
+        paintMark(g2, l, selected, selectColor);
+        Metrics.record("paint", start);
+    }
+}
@@ -0,0 +1,457 @@
+package symphonia;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * An index of the melodies of a library of tunes (a directory of command
+ * files), for finding the tunes that contain a phrase in any key.
+ *
+ * A melody is indexed by its intervals (the differences between the MIDI
+ * numbers of consecutive notes), so a phrase is found however it is
+ * transposed. Every run of gramLength intervals (an n-gram) of every voice
+ * of every tune is listed in an inverted index: for each n-gram, the places
+ * it occurs, as sorted (tune, voice, note) positions packed into longs. A
+ * phrase is found by looking up the rarest of its n-grams, and checking for
+ * each place it occurs whether the other n-grams of the phrase follow it, by
+ * binary search, so a search takes milliseconds whatever the size of the
+ * library. For a chord, the first note written is taken as the melody.
+ *
+ * The index is kept in memory, and saved in the directory (as indexFileName)
+ * whenever it changes, so it does not need to be built again the next time.
+ * Before every search, the files in the directory are compared with those
+ * indexed (by size and time of last change), and only new and changed files
+ * are read again; the tunes are read on all the processors at once. Other
+ * kinds of tune files only need a way to read their notes (see read()).
+ */
+class MelodyIndex {
+
+    // the number of intervals in an n-gram (so phrases of at least gramLength + 1 notes can be searched for)
+    static final int gramLength = 3;
+
+    // the name of the file the index is saved as, in the directory of the library
+    static final String indexFileName = ".symphonia-index";
+
+    private static final int magic = 0x53594D49; // "SYMI"
+    private static final int formatVersion = 1;
+
+    // the indices opened so far, by directory (one per directory, shared by all sessions)
+    private static final Map<File, MelodyIndex> opened = new HashMap<>();
+
+    private final File dir;
+
+    // the tunes indexed, by id (null for tunes since removed), and their ids by file name
+    private final List<Indexed> tunes = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    // the positions of every n-gram, in order
+    private final Map<Integer, Postings> postings = new HashMap<>();
+
+    // a file of the library, as it was when it was indexed
+    private static final class Indexed {
+
+        final String name;
+        final long lastModified;
+        final long length;
+
+        Indexed(String name, long lastModified, long length) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+
+    // a growing, sorted list of positions
+    private static final class Postings {
+
+        long[] positions = new long[4];
+        int size;
+
+        void add(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, 2 * size);
+            }
+            positions[size++] = position;
+        }
+
+        boolean contains(long position) {
+            return Arrays.binarySearch(positions, 0, size, position) >= 0;
+        }
+    }
+
+    /**
+     * A place where a phrase was found.
+     */
+    static final class Match {
+
+        final String file;
+        final int voice; // from 1
+        final int note; // the index of the first note of the phrase in the voice
+
+        Match(String file, int voice, int note) {
+            this.file = file;
+            this.voice = voice;
+            this.note = note;
+        }
+    }
+
+    private MelodyIndex(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the index of a library, loading it from the directory if it was
+     * saved there. The index may be out of date until refresh() is called.
+     *
+     * @param dir the directory of the library
+     * @return the index of the library
+     * @throws IOException if the directory cannot be read
+     */
+    static MelodyIndex open(File dir) throws IOException {
+        if (!dir.isDirectory()) {
+            throw new IOException(dir + " is not a directory");
+        }
+        File key = dir.getCanonicalFile();
+        synchronized (opened) {
+            MelodyIndex index = opened.get(key);
+            if (index == null) {
+                index = new MelodyIndex(key);
+                index.load();
+                opened.put(key, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Bring the index up to date with the directory: index new and changed
+     * command files, and forget removed ones. The index is saved if anything
+     * changed.
+     *
+     * @return the number of files read again and removed, as {read, removed}
+     * @throws IOException if the directory or the index cannot be read or written
+     */
+    synchronized int[] refresh() throws IOException {
+        long start = Metrics.start();
+        File[] files = dir.listFiles(new FilenameFilter() {
+            public boolean accept(File d, String name) {
+                return name.endsWith(".txt");
+            }
+        });
+        if (files == null) {
+            throw new IOException("Cannot read " + dir);
+        }
+
+        // find the files that are new, changed or gone
+        List<File> changed = new ArrayList<>();
+        Set<Integer> stale = new HashSet<>();
+        Set<String> present = new HashSet<>();
+        for (File f : files) {
+            present.add(f.getName());
+            Integer id = ids.get(f.getName());
+            if (id == null || tunes.get(id).lastModified != f.lastModified() || tunes.get(id).length != f.length()) {
+                changed.add(f);
+                if (id != null) {
+                    stale.add(id);
+                }
+            }
+        }
+        int removed = 0;
+        for (Map.Entry<String, Integer> e : ids.entrySet()) {
+            if (!present.contains(e.getKey())) {
+                stale.add(e.getValue());
+                removed++;
+            }
+        }
+        if (changed.isEmpty() && stale.isEmpty()) {
+            return new int[]{0, 0};
+        }
+
+        // read the new versions on all processors first, so that if any cannot be read the index is left as it was
+        List<int[][]> melodies = readAll(changed);
+
+        // forget the old versions of the changed files
+        for (int id : stale) {
+            ids.remove(tunes.get(id).name);
+            tunes.set(id, null);
+        }
+        if (!stale.isEmpty()) {
+            for (Iterator<Postings> it = postings.values().iterator(); it.hasNext();) {
+                Postings p = it.next();
+                int kept = 0;
+                for (int i = 0; i < p.size; i++) {
+                    if (!stale.contains((int) (p.positions[i] >>> 32))) {
+                        p.positions[kept++] = p.positions[i];
+                    }
+                }
+                p.size = kept;
+                if (kept == 0) {
+                    it.remove();
+                }
+            }
+        }
+
+        // add the new versions in order (new ids are larger, so postings stay sorted)
+        for (int i = 0; i < changed.size(); i++) {
+            File f = changed.get(i);
+            int[][] voices = melodies.get(i);
+            int id = tunes.size();
+            tunes.add(new Indexed(f.getName(), f.lastModified(), f.length()));
+            ids.put(f.getName(), id);
+            if (voices != null) {
+                add(id, voices);
+            }
+        }
+
+        save();
+        Metrics.record("index.refresh", start, changed.size());
+        return new int[]{changed.size(), removed};
+    }
+
+    // read the melodies of files on all processors, in the order of the files
+    private static List<int[][]> readAll(List<File> files) throws IOException {
+        List<int[][]> melodies = new ArrayList<>();
+        if (files.isEmpty()) {
+            return melodies;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(Runtime.getRuntime().availableProcessors(), files.size()));
+        try {
+            List<Future<int[][]>> results = new ArrayList<>();
+            for (final File f : files) {
+                results.add(pool.submit(new Callable<int[][]>() {
+                    public int[][] call() throws IOException {
+                        return read(f);
+                    }
+                }));
+            }
+            for (Future<int[][]> result : results) {
+                melodies.add(result.get());
+            }
+            return melodies;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Indexing was interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Find every place a phrase occurs in the library, in any key.
+     *
+     * @param midiNums the MIDI numbers of the notes of the phrase (at least gramLength + 1)
+     * @return the places the phrase starts, by file and then by position
+     */
+    synchronized List<Match> search(int[] midiNums) {
+        long start = Metrics.start();
+        int grams = midiNums.length - gramLength;
+        Postings[] lists = new Postings[grams];
+        int rarest = 0;
+        for (int g = 0; g < grams; g++) {
+            lists[g] = postings.get(gram(midiNums, g));
+            if (lists[g] == null) {
+                return new ArrayList<>();
+            }
+            if (lists[g].size < lists[rarest].size) {
+                rarest = g;
+            }
+        }
+
+        // every n-gram of the phrase must follow the rarest one at the right distance
+        List<Match> matches = new ArrayList<>();
+        Postings anchor = lists[rarest];
+        for (int i = 0; i < anchor.size; i++) {
+            long first = anchor.positions[i] - rarest;
+            boolean found = true;
+            for (int g = 0; g < grams && found; g++) {
+                found = g == rarest || lists[g].contains(first + g);
+            }
+            if (found) {
+                int id = (int) (first >>> 32);
+                int voiceAndNote = (int) first;
+                matches.add(new Match(tunes.get(id).name, (voiceAndNote >>> 24) + 1, voiceAndNote & 0xFFFFFF));
+            }
+        }
+        Metrics.record("search", start, grams);
+        return matches;
+    }
+
+    /**
+     * Get the number of tunes indexed.
+     *
+     * @return the number of files in the index
+     */
+    synchronized int size() {
+        return ids.size();
+    }
+
+    // add the n-grams of a tune to the index
+    private void add(int id, int[][] voices) {
+        for (int v = 0; v < voices.length; v++) {
+            int[] melody = voices[v];
+            for (int i = 0; i + gramLength < melody.length; i++) {
+                Integer key = gram(melody, i);
+                Postings p = postings.get(key);
+                if (p == null) {
+                    p = new Postings();
+                    postings.put(key, p);
+                }
+                p.add((long) id << 32 | (long) v << 24 | i);
+            }
+        }
+    }
+
+    // the n-gram of the intervals following a note, packed into an int
+    private static int gram(int[] melody, int from) {
+        int key = 0;
+        for (int i = from; i < from + gramLength; i++) {
+            int interval = Math.max(-127, Math.min(127, melody[i + 1] - melody[i]));
+            key = (key << 8) | (interval + 128);
+        }
+        return key;
+    }
+
+    /**
+     * Read the melody of every voice of a tune file.
+     *
+     * @param f the file (a command file)
+     * @return the MIDI numbers of the notes of each voice, or null if the file
+     *         is not a tune file
+     * @throws IOException if the file cannot be read
+     */
+    static int[][] read(File f) throws IOException {
+        Session session = new Session(0.5, "mf");
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            String line = in.readLine();
+            if (line == null || !line.equalsIgnoreCase(CommandFile.HEADER)) {
+                return null;
+            }
+            while ((line = in.readLine()) != null) {
+                // only the commands that make the tune, not those that play or record it
+                String command = Session.commandName(line);
+                if (!line.isEmpty() && !command.equals("play") && !command.equals("record") && !command.equals("audition")
+                        && !command.equals("index") && !command.equals("search")) {
+                    session.execute(line);
+                }
+            }
+        }
+        int[][] voices = new int[session.voices.size()][];
+        for (int v = 0; v < voices.length; v++) {
+            Note[] notes = session.voices.get(v).snapshot();
+            voices[v] = new int[notes.length];
+            for (int i = 0; i < notes.length; i++) {
+                voices[v][i] = notes[i].midiNum;
+            }
+        }
+        return voices;
+    }
+
+    // load the saved index, if there is one (an unreadable index is simply built again)
+    private void load() {
+        File f = new File(dir, indexFileName);
+        if (!f.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != magic || in.readInt() != formatVersion || in.readInt() != gramLength) {
+                return;
+            }
+            int count = in.readInt();
+            for (int id = 0; id < count; id++) {
+                Indexed t = new Indexed(in.readUTF(), in.readLong(), in.readLong());
+                tunes.add(t);
+                ids.put(t.name, id);
+            }
+            int grams = in.readInt();
+            for (int g = 0; g < grams; g++) {
+                int key = in.readInt();
+                Postings p = new Postings();
+                p.size = in.readInt();
+                p.positions = new long[Math.max(p.size, 4)];
+                for (int i = 0; i < p.size; i++) {
+                    p.positions[i] = in.readLong();
+                }
+                postings.put(key, p);
+            }
+        } catch (IOException ex) {
+            tunes.clear();
+            ids.clear();
+            postings.clear();
+        }
+    }
+
+    // save the index, leaving out removed tunes (the ids of the others are renumbered, in the same order)
+    private void save() throws IOException {
+        int[] newId = new int[tunes.size()];
+        List<Indexed> kept = new ArrayList<>();
+        for (int id = 0; id < tunes.size(); id++) {
+            newId[id] = kept.size();
+            if (tunes.get(id) != null) {
+                kept.add(tunes.get(id));
+            }
+        }
+        for (Postings p : postings.values()) {
+            for (int i = 0; i < p.size; i++) {
+                long pos = p.positions[i];
+                p.positions[i] = (long) newId[(int) (pos >>> 32)] << 32 | (pos & 0xFFFFFFFFL);
+            }
+        }
+        tunes.clear();
+        tunes.addAll(kept);
+        ids.clear();
+        for (int id = 0; id < tunes.size(); id++) {
+            ids.put(tunes.get(id).name, id);
+        }
+
+        // write a new file and then replace the old one, so a failed save leaves the old index
+        File f = new File(dir, indexFileName);
+        File tmp = new File(dir, indexFileName + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(magic);
+            out.writeInt(formatVersion);
+            out.writeInt(gramLength);
+            out.writeInt(tunes.size());
+            for (Indexed t : tunes) {
+                out.writeUTF(t.name);
+                out.writeLong(t.lastModified);
+                out.writeLong(t.length);
+            }
+            out.writeInt(postings.size());
+            for (Map.Entry<Integer, Postings> e : postings.entrySet()) {
+                Postings p = e.getValue();
+                out.writeInt(e.getKey());
+                out.writeInt(p.size);
+                for (int i = 0; i < p.size; i++) {
+                    out.writeLong(p.positions[i]);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,294 @@
+package symphonia;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Counters and latency histograms for commands, playback, painting and file
+ * import/export.
+ *
+ * Metrics are off unless Symphonia is started with -Dsymphonia.metrics=true.
+ * When they are off, start() and record() return at once without reading the
+ * clock, so instrumented code costs (almost) nothing. When they are on, each
+ * timer is registered with the platform MBean server as
+ * "symphonia:type=Timer,name=&lt;name&gt;" (visible in JConsole or VisualVM),
+ * and with -Dsymphonia.metrics.log=SECONDS a summary of all timers is printed
+ * on standard error every so many seconds.
+ *
+ * Usage:
+ *     long start = Metrics.start();
+ *     ... // the work to measure
+ *     Metrics.record("export.midi", start, tune.size());
+ */
+final class Metrics {
+
+    static final boolean enabled = Boolean.getBoolean("symphonia.metrics");
+
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    static {
+        long logSeconds = Long.getLong("symphonia.metrics.log", 0);
+        if (enabled && logSeconds > 0) {
+            startLogging(logSeconds * 1000);
+        }
+    }
+
+    private Metrics() {
+    }
+
+    /**
+     * Start measuring an operation.
+     *
+     * @return the start time, to pass to record(), or 0 if metrics are off
+     */
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time taken by an operation.
+     *
+     * @param name  the name of the timer
+     * @param start the value returned by start() when the operation began
+     */
+    static void record(String name, long start) {
+        if (enabled) {
+            timer(name).add(System.nanoTime() - start, 0);
+        }
+    }
+
+    /**
+     * Record the time taken by an operation on a number of items (notes,
+     * bytes, ...), so that the throughput can be reported too.
+     *
+     * @param name   the name of the timer
+     * @param start  the value returned by start() when the operation began
+     * @param amount the number of items processed
+     */
+    static void record(String name, long start, long amount) {
+        if (enabled) {
+            timer(name).add(System.nanoTime() - start, amount);
+        }
+    }
+
+    /**
+     * Record a duration measured by the caller, such as how late a note was.
+     *
+     * @param name  the name of the timer
+     * @param nanos the duration (in nanoseconds); negative values count as 0
+     */
+    static void recordNanos(String name, long nanos) {
+        if (enabled) {
+            timer(name).add(Math.max(nanos, 0), 0);
+        }
+    }
+
+    /**
+     * Get a timer, creating (and registering) it if it does not exist yet.
+     *
+     * @param name the name of the timer
+     * @return the timer
+     */
+    static Timer timer(String name) {
+        Timer t = timers.get(name);
+        if (t == null) {
+            Timer created = new Timer();
+            t = timers.putIfAbsent(name, created);
+            if (t == null) {
+                t = created;
+                try {
+                    ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(t, TimerMBean.class),
+                            new ObjectName("symphonia:type=Timer,name=" + ObjectName.quote(name)));
+                } catch (JMException ex) {
+                    System.err.println("Could not register timer " + name + ": " + ex);
+                }
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Summarize all timers on one line.
+     *
+     * @return a line such as "metrics: paint n=12 p50=0.41ms p99=2.10ms max=2.13ms; ..."
+     */
+    static String summary() {
+        List<String> names = new ArrayList<>(timers.keySet());
+        Collections.sort(names);
+        StringBuilder line = new StringBuilder("metrics:");
+        for (String name : names) {
+            Timer t = timers.get(name);
+            line.append(String.format(Locale.ROOT, " %s n=%d p50=%.2fms p99=%.2fms max=%.2fms;",
+                    name, t.getCount(), t.getP50Millis(), t.getP99Millis(), t.getMaxMillis()));
+        }
+        return line.toString();
+    }
+
+    private static void startLogging(final long periodMillis) {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    try {
+                        Thread.sleep(periodMillis);
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    if (!timers.isEmpty()) {
+                        System.err.println(summary());
+                    }
+                }
+            }
+        }, "Symphonia metrics");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * The management interface of a timer.
+     */
+    public interface TimerMBean {
+
+        long getCount();
+
+        double getTotalMillis();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+
+        long getAmount();
+
+        double getAmountPerSecond();
+
+        void reset();
+    }
+
+    /**
+     * A latency histogram. Durations are counted in buckets that are 1/8 of a
+     * power of two wide, so percentiles are exact to within 12.5%; adding a
+     * duration takes a few atomic increments and never blocks.
+     */
+    static final class Timer implements TimerMBean {
+
+        // durations below this many nanoseconds get a bucket each
+        private static final int linear = 16;
+        private static final int subBuckets = 8;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(linear + (63 - 4) * subBuckets);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAdder amount = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long nanos, long items) {
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            amount.add(items);
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        static int bucket(long nanos) {
+            if (nanos < linear) {
+                return (int) nanos;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (exponent - 3)) & (subBuckets - 1);
+            return linear + (exponent - 4) * subBuckets + sub;
+        }
+
+        // the largest duration counted in a bucket
+        static long upperBound(int bucket) {
+            if (bucket < linear) {
+                return bucket;
+            }
+            int exponent = (bucket - linear) / subBuckets + 4;
+            long sub = (bucket - linear) % subBuckets;
+            return ((subBuckets + sub + 1) << (exponent - 3)) - 1;
+        }
+
+        /**
+         * Estimate a percentile of the recorded durations.
+         *
+         * @param fraction the percentile, between 0 and 1
+         * @return the duration (in nanoseconds)
+         */
+        long percentile(double fraction) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        public double getMeanMillis() {
+            long n = count.sum();
+            return (n == 0) ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        public double getP50Millis() {
+            return percentile(0.5) / 1e6;
+        }
+
+        public double getP99Millis() {
+            return percentile(0.99) / 1e6;
+        }
+
+        public double getMaxMillis() {
+            return max.get() / 1e6;
+        }
+
+        public long getAmount() {
+            return amount.sum();
+        }
+
+        public double getAmountPerSecond() {
+            long nanos = totalNanos.sum();
+            return (nanos == 0) ? 0 : amount.sum() * 1e9 / nanos;
+        }
+
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            amount.reset();
+            max.set(0);
+        }
+    }
+}
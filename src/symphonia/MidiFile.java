@@ -0,0 +1,116 @@
+package symphonia;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+/**
+ * Conversion of tunes to standard MIDI files.
+ *
+ * Every note becomes a note on and a note off event (one of each for every
+ * note of a chord), preceded by a program change where the instrument
+ * changes, and the beat duration becomes the tempo of the sequence. Each voice
+ * is written on a channel of its own (skipping the percussion channel), so
+ * voices can have different instruments. Unlike playing a tune, no
+ * synthesizer (or sound card) is needed.
+ *
+ * The files are of type 1: the tempo is in a track of its own (the conductor
+ * track), and each voice in a track of its own after it. Events are added to
+ * a Track in time order, which is quick (Track.add searches back from the end
+ * for where an event goes); adding every voice to one track would make each
+ * voice after the first go back to the start, and take time quadratic in the
+ * length of the tune.
+ */
+class MidiFile {
+
+    // the number of MIDI ticks in one beat
+    static final int resolution = 480;
+
+    /**
+     * Convert a tune to a MIDI sequence.
+     *
+     * @param voices        the voices of the tune, each a list of notes
+     * @param beat_duration the duration (in seconds) of one beat
+     * @return a sequence with a conductor track (the tempo), followed by a
+     *         track for each voice
+     * @throws InvalidMidiDataException if the tune cannot be represented in MIDI
+     */
+    static Sequence toSequence(List<? extends List<Note>> voices, double beat_duration) throws InvalidMidiDataException {
+        Sequence seq = new Sequence(Sequence.PPQ, resolution);
+        Track conductor = seq.createTrack();
+
+        // set the tempo (in microseconds per beat)
+        int tempo = (int) Math.round(beat_duration * 1000000);
+        byte[] data = {(byte) (tempo >> 16), (byte) (tempo >> 8), (byte) tempo};
+        conductor.add(new MidiEvent(new MetaMessage(0x51, data, data.length), 0));
+
+        for (int v = 0; v < voices.size(); v++) {
+            Track track = seq.createTrack();
+            int channel = (v < VoiceAllocator.percussionChannel) ? v : v + 1;
+            long tick = 0;
+            int program = 0;
+            for (Note n : voices.get(v)) {
+                if (n.program != program) {
+                    program = n.program;
+                    track.add(new MidiEvent(new ShortMessage(ShortMessage.PROGRAM_CHANGE, channel, program, 0), tick));
+                }
+                long length = Math.round(n.duration * resolution);
+                addNote(track, channel, n, tick, length);
+                for (Note c : n.chord) {
+                    addNote(track, channel, c, tick, length);
+                }
+                tick += length;
+            }
+        }
+        return seq;
+    }
+
+    private static void addNote(Track track, int channel, Note n, long tick, long length) throws InvalidMidiDataException {
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, channel, n.midiNum, n.velocity), tick));
+        track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, channel, n.midiNum, 0), tick + length));
+    }
+
+    /**
+     * Write a tune as a standard MIDI file (type 1).
+     *
+     * @param voices        the voices of the tune, each a list of notes
+     * @param beat_duration the duration (in seconds) of one beat
+     * @param f             the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(List<? extends List<Note>> voices, double beat_duration, File f) throws IOException {
+        long start = Metrics.start();
+        try {
+            MidiSystem.write(toSequence(voices, beat_duration), 1, f);
+        } catch (InvalidMidiDataException ex) {
+            throw new IOException(ex);
+        }
+        Metrics.record("export.midi", start, Tune.totalSize(voices));
+    }
+
+    /**
+     * Write a tune as a standard MIDI file (type 1) to a stream.
+     *
+     * @param voices        the voices of the tune, each a list of notes
+     * @param beat_duration the duration (in seconds) of one beat
+     * @param out           the stream to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(List<? extends List<Note>> voices, double beat_duration, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        try {
+            MidiSystem.write(toSequence(voices, beat_duration), 1, out);
+        } catch (InvalidMidiDataException ex) {
+            throw new IOException(ex);
+        }
+        Metrics.record("export.midi", start, Tune.totalSize(voices));
+    }
+}
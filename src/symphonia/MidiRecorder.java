@@ -0,0 +1,332 @@
+package symphonia;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Transmitter;
+
+/**
+ * Turns notes played on a MIDI keyboard (or any other MIDI transmitter) into
+ * notes of a tune.
+ *
+ * The recorder is the Receiver of the transmitter. The transmitter's thread
+ * only copies the time, key and velocity of each note on and note off into a
+ * ring buffer (arrays allocated up front, shared with exactly one reader), so
+ * it never allocates, locks or waits, however fast events arrive. If the ring
+ * buffer is full, the event is lost and counted (see lost()).
+ *
+ * A thread of the recorder's own reads the ring buffer and pairs each note on
+ * with the note off of the same key. The length of a note is rounded to the
+ * nearest of Note.allowedDurations (in beats of beat_duration seconds), and
+ * its velocity to the nearest dynamic marking. Notes that start within
+ * chordWindow of each other become a chord, which lasts as long as the first
+ * of them. Notes are added in the order they started; the silences between
+ * them are not recorded, since a tune has no rests. Keys outside the range of
+ * a tune (more than two octaves above or below the middle octave) are skipped
+ * and counted (see skipped()).
+ *
+ * Finished notes are handed to a consumer in batches, at most every
+ * batchInterval, rather than one by one, so whoever adds them to the tune (and
+ * redraws the score) does so a few times a second even when notes arrive
+ * thousands of times a second.
+ */
+class MidiRecorder implements Receiver {
+
+    // the number of events the ring buffer holds (a power of two)
+    static final int capacity = 1 << 16;
+
+    // notes starting closer together than this (in microseconds) are a chord
+    static final long chordWindow = 30000;
+
+    // the longest (in nanoseconds) finished notes are kept before being handed on
+    static final long batchInterval = 50000000;
+
+    // the note name and octave change of every MIDI key (null outside the range of a tune)
+    private static final String[] keyName = new String[128];
+    private static final int[] keyOctave = new int[128];
+
+    // the nearest dynamic marking to every velocity
+    private static final String[] velocityDynamic = new String[128];
+
+    static {
+        int middleC = Note.noteToMidiNum.get("C");
+        for (int key = 0; key < 128; key++) {
+            int octave = Math.floorDiv(key - middleC, 12);
+            if (octave >= -2 && octave <= 2) {
+                keyName[key] = RangeTransform.sharpNames[Math.floorMod(key - middleC, 12)];
+                keyOctave[key] = octave;
+            }
+            int nearest = Integer.MAX_VALUE;
+            for (Map.Entry<String, Integer> d : Note.dynamicToVelocity.entrySet()) {
+                if (Math.abs(d.getValue() - key) < nearest) {
+                    nearest = Math.abs(d.getValue() - key);
+                    velocityDynamic[key] = d.getKey();
+                }
+            }
+        }
+    }
+
+    // the ring buffer: event i is in slot i % capacity
+    private final long[] times = new long[capacity]; // in microseconds
+    private final int[] events = new int[capacity]; // (on ? 1 << 16 : 0) | key << 8 | velocity
+    private final AtomicLong read = new AtomicLong(); // the number of events taken (written by the reader)
+    private final AtomicLong written = new AtomicLong(); // the number of events put (written by the transmitter)
+    private long readSeen; // the transmitter's last look at read, so it need not read it every time
+    private volatile long lost;
+
+    private final double beat_duration;
+    private final int program;
+    private final Consumer<Note[]> batches;
+    private final Thread reader;
+    private Transmitter source;
+    private volatile boolean closed;
+
+    // only used by the reader thread
+    private final Held[] held = new Held[128]; // the keys down at the moment
+    private final ArrayDeque<Held> started = new ArrayDeque<>(); // notes not yet handed on, in the order they started
+    private final ArrayList<Note> batch = new ArrayList<>();
+    private long lastTime = Long.MIN_VALUE; // the time of the latest event read
+    private long skipped;
+    private long recorded;
+
+    // a key pressed at some time and (once off is set) released
+    private static final class Held {
+
+        final long on;
+        final int key;
+        final int velocity;
+        long off = -1;
+
+        Held(long on, int key, int velocity) {
+            this.on = on;
+            this.key = key;
+            this.velocity = velocity;
+        }
+    }
+
+    /**
+     * Parameterized constructor. Starts the thread that turns events into
+     * notes.
+     *
+     * @param beat_duration the duration (in seconds) of one beat
+     * @param program       the General MIDI program (0 to 127) to give the notes
+     * @param batches       receives the notes recorded, a batch at a time (on the recorder's thread)
+     */
+    MidiRecorder(double beat_duration, int program, Consumer<Note[]> batches) {
+        this.beat_duration = beat_duration;
+        this.program = program;
+        this.batches = batches;
+        reader = new Thread(new Runnable() {
+            public void run() {
+                readEvents();
+            }
+        }, "Symphonia recorder");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Record the notes sent by a transmitter. The transmitter is closed when
+     * the recorder is.
+     *
+     * @param t the transmitter (for example, that of a MIDI keyboard)
+     */
+    void attach(Transmitter t) {
+        source = t;
+        t.setReceiver(this);
+    }
+
+    /**
+     * Take a MIDI message from the transmitter. Only note on and note off
+     * messages (on any channel) are kept. Never blocks or allocates.
+     *
+     * @param message   the message
+     * @param timeStamp the time of the message in microseconds, or -1 if the
+     *                  transmitter does not give times (in which case the
+     *                  time it arrives is used)
+     */
+    public void send(MidiMessage message, long timeStamp) {
+        if (closed || !(message instanceof ShortMessage)) {
+            return;
+        }
+        ShortMessage sm = (ShortMessage) message;
+        int command = sm.getCommand();
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) {
+            return;
+        }
+
+        long w = written.get();
+        if (w - readSeen >= capacity) {
+            readSeen = read.get();
+            if (w - readSeen >= capacity) {
+                lost++; // only this thread writes it
+                return;
+            }
+        }
+        int slot = (int) (w & (capacity - 1));
+        int velocity = sm.getData2();
+        boolean on = command == ShortMessage.NOTE_ON && velocity > 0; // a note on with velocity 0 is a note off
+        times[slot] = (timeStamp >= 0) ? timeStamp : System.nanoTime() / 1000;
+        events[slot] = (on ? 1 << 16 : 0) | sm.getData1() << 8 | velocity;
+        written.lazySet(w + 1); // publishes the slot to the reader
+    }
+
+    /**
+     * Stop recording, closing the transmitter. Keys still down are taken as
+     * released at the time of the last event, and the last batch of notes is
+     * handed on before this method returns.
+     */
+    public void close() {
+        Transmitter t = source;
+        source = null;
+        if (t != null) {
+            t.close(); // no more events will be sent
+        }
+        closed = true;
+        boolean interrupted = false;
+        while (reader.isAlive()) {
+            try {
+                reader.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of notes recorded so far.
+     *
+     * @return the number of notes (a chord counting as one) handed on
+     */
+    long recorded() {
+        return recorded;
+    }
+
+    /**
+     * Get the number of notes skipped because they are out of range.
+     *
+     * @return the number of keys outside the range of a tune that were played
+     */
+    long skipped() {
+        return skipped;
+    }
+
+    /**
+     * Get the number of events lost because they arrived faster than they
+     * could be read.
+     *
+     * @return the number of note on and note off events lost
+     */
+    long lost() {
+        return lost;
+    }
+
+    private void readEvents() {
+        long lastBatch = System.nanoTime();
+        while (true) {
+            boolean finished = closed; // checked before reading, so no event sent before close() is missed
+            long r = read.get();
+            long w = written.get();
+            for (; r < w; r++) {
+                int slot = (int) (r & (capacity - 1));
+                int event = events[slot];
+                event(times[slot], (event & 1 << 16) != 0, (event >> 8) & 0x7F, event & 0x7F);
+            }
+            read.lazySet(r);
+
+            if (finished) {
+                for (Held h : held) {
+                    if (h != null) {
+                        h.off = lastTime;
+                    }
+                }
+            }
+            finishNotes(finished);
+            if (!batch.isEmpty() && (finished || System.nanoTime() - lastBatch >= batchInterval)) {
+                recorded += batch.size();
+                batches.accept(batch.toArray(new Note[batch.size()]));
+                batch.clear();
+                lastBatch = System.nanoTime();
+            }
+            if (finished) {
+                return;
+            }
+            if (r == w) {
+                LockSupport.parkNanos(1000000);
+            }
+        }
+    }
+
+    private void event(long time, boolean on, int key, int velocity) {
+        lastTime = Math.max(lastTime, time);
+        Held h = held[key];
+        if (h != null) {
+            // a note off, or the same key struck again before its note off
+            h.off = time;
+            held[key] = null;
+        }
+        if (on) {
+            h = new Held(time, key, velocity);
+            held[key] = h;
+            started.add(h);
+        }
+    }
+
+    // turn the notes that have started and finished into notes of the tune, in the order they started
+    private void finishNotes(boolean all) {
+        while (!started.isEmpty()) {
+            Held first = started.peek();
+            // a later event might still add to the chord
+            if (!all && lastTime - first.on <= chordWindow) {
+                return;
+            }
+            int count = 0;
+            for (Held h : started) {
+                if (h.on - first.on > chordWindow) {
+                    break;
+                }
+                if (h.off < 0) {
+                    return; // wait for the whole chord to be released
+                }
+                count++;
+            }
+
+            ArrayList<String> names = new ArrayList<>(count);
+            ArrayList<Integer> octaves = new ArrayList<>(count);
+            int velocity = 0;
+            for (int i = 0; i < count; i++) {
+                Held h = started.poll();
+                if (keyName[h.key] == null) {
+                    skipped++;
+                    continue;
+                }
+                names.add(keyName[h.key]);
+                octaves.add(keyOctave[h.key]);
+                velocity = Math.max(velocity, h.velocity);
+            }
+            if (names.isEmpty()) {
+                continue;
+            }
+            int[] deltaOctaves = new int[octaves.size()];
+            for (int i = 0; i < deltaOctaves.length; i++) {
+                deltaOctaves[i] = octaves.get(i);
+            }
+            batch.add(Note.chord(names.toArray(new String[names.size()]), deltaOctaves,
+                    quantize(first.off - first.on), velocityDynamic[velocity], program));
+        }
+    }
+
+    // the allowed duration nearest to a length of time in microseconds
+    private double quantize(long micros) {
+        return Note.nearestAllowedDuration(micros / (beat_duration * 1e6));
+    }
+}
@@ -0,0 +1,74 @@
+package symphonia;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Soundbank;
+import javax.sound.midi.Synthesizer;
+
+/**
+ * The synthesizer that tunes are played on, shared by all sessions.
+ *
+ * Opening a synthesizer and loading its soundbank takes a long time (often
+ * more than a second), so it is done only once, on a background thread.
+ * Calling preload() early (as the desktop application does at startup) lets
+ * it happen while the user is busy with something else; otherwise it is
+ * started the first time a tune is played.
+ */
+class MidiSynth {
+
+    private static final FutureTask<Synthesizer> loader = new FutureTask<>(new Callable<Synthesizer>() {
+        public Synthesizer call() throws MidiUnavailableException {
+            Synthesizer synth = MidiSystem.getSynthesizer();
+            synth.open();
+            Soundbank soundbank = synth.getDefaultSoundbank();
+            if (soundbank != null) {
+                synth.loadAllInstruments(soundbank);
+            }
+            return synth;
+        }
+    });
+
+    private static boolean started = false;
+
+    private MidiSynth() {
+    }
+
+    /**
+     * Start loading the synthesizer in the background, if it is not loaded or
+     * being loaded already.
+     */
+    static synchronized void preload() {
+        if (!started) {
+            started = true;
+            Thread t = new Thread(loader, "Symphonia synthesizer");
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Get the synthesizer, waiting for it to finish loading if necessary.
+     *
+     * @return the open synthesizer, with the instruments of its default soundbank loaded
+     * @throws MidiUnavailableException if there is no synthesizer
+     */
+    static Synthesizer get() throws MidiUnavailableException {
+        preload();
+        try {
+            return loader.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MidiUnavailableException("Interrupted while loading the synthesizer.");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof MidiUnavailableException) {
+                throw (MidiUnavailableException) ex.getCause();
+            }
+            MidiUnavailableException mue = new MidiUnavailableException(String.valueOf(ex.getCause()));
+            mue.initCause(ex.getCause());
+            throw mue;
+        }
+    }
+}
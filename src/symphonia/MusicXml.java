@@ -0,0 +1,581 @@
+package symphonia;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Consumer;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Conversion of tunes to and from MusicXML (the partwise form), the format
+ * read and written by most notation software.
+ *
+ * Both directions stream: a tune is written note by note with an
+ * XMLStreamWriter, and read with an XMLStreamReader that only holds on to the
+ * note being read, so a file of millions of notes needs no more memory than
+ * the tune itself.
+ *
+ * Each voice is written as a part of its own, on the MIDI channel it is played
+ * on. A tune has no bar lines, so its notes are put in bars of measureBeats
+ * beats; a note longer than what is left of a bar is split, and the parts are
+ * tied. Durations are counted in divisions of a beat (a semiquaver is one).
+ * The pitch of a note is its letter, accidental (as an alteration of a
+ * semitone) and octave (4 being the middle octave). Dynamic markings and
+ * instruments (MIDI programs) are written where they change.
+ *
+ * When a file is read, every part (and every numbered voice within a part)
+ * is added to the end of a voice of the tune, in order: the first to voice 1,
+ * and so on up to Session.maxVoices. Tied notes are joined again, and lengths
+ * that are not an allowed duration are rounded to the nearest one. What a tune
+ * cannot hold (rests, grace notes, notes more than two octaves from the middle
+ * octave, voices beyond the last) is left out, and counted in the feedback.
+ */
+class MusicXml {
+
+    // the divisions of a beat that durations are counted in
+    static final int divisions = 4;
+
+    // the number of beats in a bar (the time signature is measureBeats/4)
+    static final int measureBeats = 4;
+
+    private static final int measureDivisions = measureBeats * divisions;
+
+    // the note types of the lengths (in divisions) that have one, and whether they are dotted
+    private static final String[] types = new String[measureDivisions + 1];
+    private static final boolean[] dotted = new boolean[measureDivisions + 1];
+
+    // the text of the lengths (in divisions) written for every note
+    private static final String[] numbers = new String[measureDivisions + 1];
+
+    static {
+        types[1] = "16th";
+        types[2] = "eighth";
+        types[3] = "eighth";
+        types[4] = "quarter";
+        types[6] = "quarter";
+        types[8] = "half";
+        types[12] = "half";
+        types[16] = "whole";
+        dotted[3] = true;
+        dotted[6] = true;
+        dotted[12] = true;
+        for (int i = 0; i < numbers.length; i++) {
+            numbers[i] = Integer.toString(i);
+        }
+    }
+
+    /**
+     * Write a tune as a MusicXML document.
+     *
+     * @param voices the voices of the tune, each a list of notes
+     * @param out    the destination of the document (not closed)
+     * @throws IOException if the document cannot be written
+     */
+    static void write(List<? extends List<Note>> voices, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        try {
+            // the writer is given characters rather than bytes, since its own encoder is much slower
+            Writer chars = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            XMLStreamWriter w = XMLOutputFactory.newInstance().createXMLStreamWriter(chars);
+            w.writeStartDocument("UTF-8", "1.0");
+            w.writeDTD("\n<!DOCTYPE score-partwise PUBLIC \"-//Recordare//DTD MusicXML 3.1 Partwise//EN\" \"http://www.musicxml.org/dtds/partwise.dtd\">\n");
+            w.writeStartElement("score-partwise");
+            w.writeAttribute("version", "3.1");
+
+            // name every voice, and the instrument it starts on
+            w.writeStartElement("part-list");
+            for (int v = 0; v < voices.size(); v++) {
+                List<Note> voice = voices.get(v);
+                w.writeStartElement("score-part");
+                w.writeAttribute("id", partId(v));
+                element(w, "part-name", "Voice " + (v + 1));
+                w.writeStartElement("score-instrument");
+                w.writeAttribute("id", instrumentId(v));
+                element(w, "instrument-name", "Program " + (voice.isEmpty() ? 0 : voice.get(0).program));
+                w.writeEndElement();
+                w.writeStartElement("midi-instrument");
+                w.writeAttribute("id", instrumentId(v));
+                element(w, "midi-channel", Integer.toString(((v < VoiceAllocator.percussionChannel) ? v : v + 1) + 1));
+                element(w, "midi-program", Integer.toString((voice.isEmpty() ? 0 : voice.get(0).program) + 1));
+                w.writeEndElement();
+                w.writeEndElement();
+            }
+            w.writeEndElement();
+
+            for (int v = 0; v < voices.size(); v++) {
+                writePart(w, voices.get(v), v);
+            }
+            w.writeEndElement();
+            w.writeEndDocument();
+            w.flush();
+            chars.flush();
+        } catch (XMLStreamException ex) {
+            throw new IOException(ex);
+        }
+        Metrics.record("export.musicxml", start, Tune.totalSize(voices));
+    }
+
+    private static void writePart(XMLStreamWriter w, List<Note> voice, int v) throws XMLStreamException {
+        w.writeStartElement("part");
+        w.writeAttribute("id", partId(v));
+        int measure = 1;
+        startMeasure(w, measure);
+        w.writeStartElement("attributes");
+        element(w, "divisions", Integer.toString(divisions));
+        w.writeStartElement("key");
+        element(w, "fifths", "0");
+        w.writeEndElement();
+        w.writeStartElement("time");
+        element(w, "beats", Integer.toString(measureBeats));
+        element(w, "beat-type", "4");
+        w.writeEndElement();
+        w.writeStartElement("clef");
+        element(w, "sign", "G");
+        element(w, "line", "2");
+        w.writeEndElement();
+        w.writeEndElement();
+
+        if (voice.isEmpty()) {
+            // a part needs at least one note: a bar's rest
+            w.writeStartElement("note");
+            w.writeEmptyElement("rest");
+            w.writeAttribute("measure", "yes");
+            element(w, "duration", Integer.toString(measureDivisions));
+            w.writeEndElement();
+        }
+
+        int position = 0; // in divisions from the start of the bar
+        String dynamic = null;
+        int program = voice.isEmpty() ? 0 : voice.get(0).program;
+        for (Note n : voice) {
+            if (position == measureDivisions) {
+                w.writeEndElement();
+                startMeasure(w, ++measure);
+                position = 0;
+            }
+            if (!n.dynamic_marking.equals(dynamic)) {
+                dynamic = n.dynamic_marking;
+                w.writeStartElement("direction");
+                w.writeAttribute("placement", "below");
+                w.writeStartElement("direction-type");
+                w.writeStartElement("dynamics");
+                w.writeEmptyElement(dynamic);
+                w.writeEndElement();
+                w.writeEndElement();
+                w.writeEmptyElement("sound");
+                w.writeAttribute("dynamics", String.format(Locale.ROOT, "%.2f", n.velocity * 100 / 90.0)); // 100 is a velocity of 90
+                w.writeEndElement();
+            }
+            if (n.program != program) {
+                program = n.program;
+                w.writeStartElement("sound");
+                w.writeStartElement("midi-instrument");
+                w.writeAttribute("id", instrumentId(v));
+                element(w, "midi-program", Integer.toString(program + 1));
+                w.writeEndElement();
+                w.writeEndElement();
+            }
+
+            // split the note at bar lines, tying the parts
+            int length = (int) Math.round(n.duration * divisions);
+            boolean tiedBefore = false;
+            while (length > 0) {
+                if (position == measureDivisions) {
+                    w.writeEndElement();
+                    startMeasure(w, ++measure);
+                    position = 0;
+                }
+                int part = Math.min(length, measureDivisions - position);
+                boolean tiedAfter = part < length;
+                writeNote(w, n, false, part, tiedBefore, tiedAfter);
+                for (Note c : n.chord) {
+                    writeNote(w, c, true, part, tiedBefore, tiedAfter);
+                }
+                tiedBefore = true;
+                length -= part;
+                position += part;
+            }
+        }
+        w.writeEndElement(); // measure
+        w.writeEndElement(); // part
+    }
+
+    private static void writeNote(XMLStreamWriter w, Note n, boolean inChord, int length, boolean tiedBefore, boolean tiedAfter) throws XMLStreamException {
+        w.writeStartElement("note");
+        if (inChord) {
+            w.writeEmptyElement("chord");
+        }
+        w.writeStartElement("pitch");
+        element(w, "step", n.noteName.substring(0, 1));
+        if (n.noteName.contains("#")) {
+            element(w, "alter", "1");
+        } else if (n.noteName.contains("b")) {
+            element(w, "alter", "-1");
+        }
+        element(w, "octave", Integer.toString(4 + n.deltaOctave));
+        w.writeEndElement();
+        element(w, "duration", numbers[length]);
+        if (tiedBefore) {
+            w.writeEmptyElement("tie");
+            w.writeAttribute("type", "stop");
+        }
+        if (tiedAfter) {
+            w.writeEmptyElement("tie");
+            w.writeAttribute("type", "start");
+        }
+        element(w, "voice", "1");
+        if (types[length] != null) {
+            element(w, "type", types[length]);
+            if (dotted[length]) {
+                w.writeEmptyElement("dot");
+            }
+        }
+        if (tiedBefore || tiedAfter) {
+            w.writeStartElement("notations");
+            if (tiedBefore) {
+                w.writeEmptyElement("tied");
+                w.writeAttribute("type", "stop");
+            }
+            if (tiedAfter) {
+                w.writeEmptyElement("tied");
+                w.writeAttribute("type", "start");
+            }
+            w.writeEndElement();
+        }
+        w.writeEndElement();
+    }
+
+    private static void startMeasure(XMLStreamWriter w, int number) throws XMLStreamException {
+        w.writeStartElement("measure");
+        w.writeAttribute("number", Integer.toString(number));
+    }
+
+    private static void element(XMLStreamWriter w, String name, String text) throws XMLStreamException {
+        w.writeStartElement(name);
+        w.writeCharacters(text);
+        w.writeEndElement();
+    }
+
+    private static String partId(int voice) {
+        return "P" + (voice + 1);
+    }
+
+    private static String instrumentId(int voice) {
+        return partId(voice) + "-I1";
+    }
+
+    // the notes of a voice being read: the last note (or chord) is kept until it is known not to go on
+    private static final class VoiceReader {
+
+        final Tune tune; // null if the tune has no room for the voice
+        final ArrayList<String> names = new ArrayList<>();
+        final ArrayList<Integer> octaves = new ArrayList<>();
+        boolean pending; // whether a note is being read (its pitches may all have been left out)
+        int midiNum; // of the first note of the chord, to match the note tied to it
+        double beats;
+        String dynamic;
+        int program;
+        boolean tied; // whether the note is tied to the next
+
+        VoiceReader(Tune tune) {
+            this.tune = tune;
+        }
+    }
+
+    // what has been read so far, for the feedback
+    private static final class Counts {
+
+        int voices;
+        long notes;
+        long left;
+        long rounded;
+    }
+
+    /**
+     * Read a MusicXML document (partwise), adding its notes to the voices of a
+     * session.
+     *
+     * @param in       the document (not closed)
+     * @param session  the session to add the notes to
+     * @param feedback receives a summary of what was read, and any errors
+     * @return true if the document was read to the end
+     * @throws IOException if the document cannot be read
+     */
+    static boolean read(InputStream in, Session session, Consumer<String> feedback) throws IOException {
+        long start = Metrics.start();
+        long began = System.nanoTime();
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false); // never fetch the DTD named by the document
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        int selected = session.voice();
+        Counts counts = new Counts();
+        Map<String, Integer> partPrograms = new HashMap<>(); // the programs the parts start with, by part id
+        Map<String, VoiceReader> voices = new HashMap<>(); // the voices of the part being read, by number
+        String scorePart = null;
+        boolean inPart = false;
+        int divisionsPerBeat = 1;
+        String dynamic = session.current_dynamic;
+        int program = session.current_program;
+
+        // the note being read
+        boolean inNote = false;
+        boolean chord = false;
+        boolean skip = false; // a rest, or a note without a pitch: it ends the note before it
+        boolean ornament = false; // a grace or cue note: it takes no time of its own
+        String step = null;
+        int alter = 0;
+        int octave = 4;
+        int duration = 0;
+        boolean tieStart = false;
+        boolean tieStop = false;
+        String voice = "1";
+
+        try {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    String name = r.getLocalName();
+                    switch (name) {
+                        case "score-timewise":
+                            feedback.accept("Invalid File: only partwise MusicXML files can be imported.\n");
+                            return false;
+                        case "score-part":
+                            scorePart = r.getAttributeValue(null, "id");
+                            break;
+                        case "midi-program":
+                            int p = Math.max(0, Math.min(127, Integer.parseInt(r.getElementText().trim()) - 1));
+                            if (inPart) {
+                                program = p;
+                            } else if (scorePart != null && !partPrograms.containsKey(scorePart)) {
+                                partPrograms.put(scorePart, p);
+                            }
+                            break;
+                        case "part":
+                            inPart = true;
+                            voices.clear();
+                            Integer partProgram = partPrograms.get(r.getAttributeValue(null, "id"));
+                            program = (partProgram != null) ? partProgram : session.current_program;
+                            dynamic = session.current_dynamic;
+                            break;
+                        case "divisions":
+                            divisionsPerBeat = Math.max(1, (int) Math.round(Double.parseDouble(r.getElementText().trim())));
+                            break;
+                        case "dynamics":
+                            // the marking is the first element in it that is one we know
+                            while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                                if (Note.dynamicToVelocity.containsKey(r.getLocalName())) {
+                                    dynamic = r.getLocalName();
+                                }
+                                skipElement(r);
+                            }
+                            break;
+                        case "note":
+                            inNote = true;
+                            chord = false;
+                            skip = false;
+                            ornament = false;
+                            step = null;
+                            alter = 0;
+                            octave = 4;
+                            duration = 0;
+                            tieStart = false;
+                            tieStop = false;
+                            voice = "1";
+                            break;
+                        default:
+                            if (!inNote) {
+                                break;
+                            }
+                            switch (name) {
+                                case "chord":
+                                    chord = true;
+                                    break;
+                                case "rest":
+                                case "unpitched":
+                                    skip = true;
+                                    break;
+                                case "grace":
+                                case "cue":
+                                    ornament = true;
+                                    break;
+                                case "step":
+                                    step = r.getElementText().trim();
+                                    break;
+                                case "alter":
+                                    alter = (int) Math.signum(Double.parseDouble(r.getElementText().trim()));
+                                    break;
+                                case "octave":
+                                    octave = Integer.parseInt(r.getElementText().trim());
+                                    break;
+                                case "duration":
+                                    duration = (int) Math.round(Double.parseDouble(r.getElementText().trim()));
+                                    break;
+                                case "tie":
+                                    tieStart |= "start".equals(r.getAttributeValue(null, "type"));
+                                    tieStop |= "stop".equals(r.getAttributeValue(null, "type"));
+                                    break;
+                                case "voice":
+                                    voice = r.getElementText().trim();
+                                    break;
+                                default:
+                                    break;
+                            }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = r.getLocalName();
+                    if (name.equals("note")) {
+                        inNote = false;
+                        VoiceReader v = voices.get(voice);
+                        if (v == null) {
+                            // the next voice of the file goes on the end of the next voice of the tune, if there is one
+                            Tune tune = null;
+                            if (++counts.voices <= Session.maxVoices) {
+                                session.selectVoice(counts.voices);
+                                tune = session.tune;
+                            }
+                            v = new VoiceReader(tune);
+                            voices.put(voice, v);
+                        }
+                        if (ornament) {
+                            counts.left++;
+                            continue;
+                        }
+                        if (skip || v.tune == null) {
+                            if (!chord) {
+                                finishNote(v, counts);
+                            }
+                            counts.left++;
+                            continue;
+                        }
+                        int deltaOctave = octave - 4;
+                        String noteName = step + ((alter > 0) ? "#" : (alter < 0) ? "b" : "");
+                        boolean inRange = step != null && step.length() == 1 && Note.noteToMidiNum.containsKey(step)
+                                && deltaOctave >= -2 && deltaOctave <= 2;
+                        int midiNum = inRange ? Note.noteToMidiNum.get(step) + alter + 12 * deltaOctave : -1;
+                        double beats = duration / (double) divisionsPerBeat;
+                        if (chord) {
+                            // another note of the chord being read (unless it only continues a tied chord)
+                            if (v.pending && !tieStop) {
+                                addPitch(v, noteName, deltaOctave, inRange, counts);
+                            }
+                        } else if (v.pending && v.tied && tieStop && midiNum == v.midiNum) {
+                            // the rest of a tied note
+                            v.beats += beats;
+                            v.tied = tieStart;
+                        } else {
+                            finishNote(v, counts);
+                            v.pending = true;
+                            v.midiNum = midiNum;
+                            v.beats = beats;
+                            v.dynamic = dynamic;
+                            v.program = program;
+                            v.tied = tieStart;
+                            addPitch(v, noteName, deltaOctave, inRange, counts);
+                        }
+                    } else if (name.equals("part")) {
+                        inPart = false;
+                        for (VoiceReader v : voices.values()) {
+                            finishNote(v, counts);
+                        }
+                    }
+                }
+            }
+            r.close();
+        } catch (XMLStreamException | IllegalArgumentException ex) {
+            // an IllegalArgumentException is a number that cannot be parsed
+            feedback.accept("Invalid MusicXML file: " + ex.getMessage() + "\n");
+            return false;
+        } finally {
+            for (VoiceReader v : voices.values()) {
+                finishNote(v, counts);
+            }
+            session.selectVoice(selected);
+            Metrics.record("import.musicxml", start, counts.notes);
+        }
+
+        StringBuilder summary = new StringBuilder();
+        summary.append("Read ").append(counts.notes).append(" notes in ").append(Math.min(counts.voices, Session.maxVoices)).append(" voices");
+        summary.append(" (").append(throughput(counts.notes, System.nanoTime() - began)).append(").\n");
+        if (counts.left > 0) {
+            summary.append(counts.left).append(" rests and notes a tune cannot hold were left out.\n");
+        }
+        if (counts.rounded > 0) {
+            summary.append(counts.rounded).append(" notes were rounded to the nearest allowed duration.\n");
+        }
+        feedback.accept(summary.toString());
+        return true;
+    }
+
+    private static void addPitch(VoiceReader v, String noteName, int deltaOctave, boolean inRange, Counts counts) {
+        if (inRange) {
+            v.names.add(noteName);
+            v.octaves.add(deltaOctave);
+        } else {
+            counts.left++;
+        }
+    }
+
+    // add the note (or chord) being read to the tune
+    private static void finishNote(VoiceReader v, Counts counts) {
+        if (!v.pending) {
+            return;
+        }
+        v.pending = false;
+        if (v.names.isEmpty()) {
+            return;
+        }
+        double duration = Note.nearestAllowedDuration(v.beats);
+        if (Math.abs(duration - v.beats) > 1e-9) {
+            counts.rounded++;
+        }
+        int[] deltaOctaves = new int[v.octaves.size()];
+        for (int i = 0; i < deltaOctaves.length; i++) {
+            deltaOctaves[i] = v.octaves.get(i);
+        }
+        v.tune.add(Note.chord(v.names.toArray(new String[v.names.size()]), deltaOctaves, duration, v.dynamic, v.program));
+        counts.notes++;
+        v.names.clear();
+        v.octaves.clear();
+    }
+
+    // skip the rest of the current element, including everything in it
+    private static void skipElement(XMLStreamReader r) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = r.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Describe how fast notes were converted, for the feedback of an import
+     * or export.
+     *
+     * @param notes the number of notes
+     * @param nanos the time taken, in nanoseconds
+     * @return the time and the number of notes a second
+     */
+    static String throughput(long notes, long nanos) {
+        return String.format(Locale.ROOT, "%d ms, %.0f notes/s", nanos / 1000000, notes * 1e9 / Math.max(nanos, 1));
+    }
+}
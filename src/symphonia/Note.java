@@ -1,17 +1,20 @@
 package symphonia;
 
 import java.util.HashMap;
-import javax.sound.midi.MidiChannel;
 
 /**
  * A user-defined type to represent a musical Note. This is the core data
- * structure of the application, the main tune being an ArrayList of Notes.
+ * structure of the application, the main tune being a list (Tune) of Notes.
  *
  * Each note has a note name (musical name), a duration (the number of beats it
  * should be played for), a dynamic marking (how loud it should be played;
- * represented in standard musical terms), and a variable for octave changes
- * (shifting the note a few octaves higher or lower). It also contains some
- * constant class variables used by the Main and Symphonia classes.
+ * represented in standard musical terms), a variable for octave changes
+ * (shifting the note a few octaves higher or lower), and the instrument it is
+ * played on (a General MIDI program number, 0 being the piano). A note can
+ * also be a chord: the other notes of the chord, which sound for the same
+ * time, as loud and on the same instrument, are kept in the note's chord
+ * array. It also contains some constant class variables used by the Main and
+ * Symphonia classes.
  */
 public class Note {
 
@@ -51,12 +54,20 @@ public class Note {
     // the difference in MIDI numbers of the same note in two consecutive octaves
     private final int OCTAVE_INTERVAL = 12;
 
+    // the note letters, in order up the staff from middle C
+    private static final String staffOrder = "CDEFGAB";
+
+    // the chord of a single note
+    private static final Note[] noChord = new Note[0];
+
     String noteName;
     int deltaOctave;
     int midiNum;
     double duration;
     String dynamic_marking;
     int velocity;
+    int program;
+    Note[] chord = noChord; // the other notes played together with this one (never changed once set)
 
     /**
      * Parameterized constructor.
@@ -67,11 +78,24 @@ public class Note {
      * @param dynamic_marking the dynamic of the note
      */
     public Note(String noteName, double duration, int deltaOctave, String dynamic_marking) {
+        this(noteName, duration, deltaOctave, dynamic_marking, 0);
+    }
+
+    /**
+     * Parameterized constructor, for a note played on any instrument.
+     *
+     * @param noteName        musical name of the note
+     * @param duration        the duration (in number of beats) of the note
+     * @param deltaOctave     the number of octaves above/below the middle octave
+     * @param dynamic_marking the dynamic of the note
+     * @param program         the General MIDI program (0 to 127) of the instrument to play the note on
+     */
+    public Note(String noteName, double duration, int deltaOctave, String dynamic_marking, int program) {
         this.noteName = noteName;
         this.deltaOctave = deltaOctave;
         
         // calculate MIDI number
-        this.midiNum = noteToMidiNum.get(Character.toString(noteName.charAt(0))) + (deltaOctave * OCTAVE_INTERVAL);
+        this.midiNum = noteToMidiNum.get(noteName.substring(0, 1)) + (deltaOctave * OCTAVE_INTERVAL);
         if (noteName.contains("#")) {
             this.midiNum++;
         } else if (noteName.contains("b")) {
@@ -81,22 +105,55 @@ public class Note {
         this.duration = duration;
         this.dynamic_marking = dynamic_marking;
         this.velocity = dynamicToVelocity.get(dynamic_marking);
+        this.program = program;
     }
 
     /**
-     * Play the Note. Play the Note using a given MidiChannel and beat duration.
-     * 
-     * @param mc                the MidiChannel to play the note on
-     * @param crotchet_duration the duration (in seconds) of one beat
+     * Create a chord: several notes played at the same time, for the same
+     * duration, as loud and on the same instrument.
+     *
+     * @param noteNames       the musical names of the notes, in the order they were written
+     * @param deltaOctaves    the octave change of each note
+     * @param duration        the duration (in number of beats) of the chord
+     * @param dynamic_marking the dynamic of the chord
+     * @param program         the General MIDI program (0 to 127) of the instrument to play the chord on
+     * @return the first note, holding the others in its chord array
      */
-    void play(MidiChannel mc, double crotchet_duration) {
-        long time_to_play_millis = (long) (crotchet_duration * this.duration * 1000);
-        mc.noteOn(this.midiNum, this.velocity);
-        try {
-            Thread.sleep(time_to_play_millis);
-        } catch (InterruptedException ex) {
+    static Note chord(String[] noteNames, int[] deltaOctaves, double duration, String dynamic_marking, int program) {
+        Note first = new Note(noteNames[0], duration, deltaOctaves[0], dynamic_marking, program);
+        if (noteNames.length > 1) {
+            first.chord = new Note[noteNames.length - 1];
+            for (int i = 1; i < noteNames.length; i++) {
+                first.chord[i - 1] = new Note(noteNames[i], duration, deltaOctaves[i], dynamic_marking, program);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Round a length of time to the nearest duration a note can have.
+     *
+     * @param beats the length in beats
+     * @return the nearest of allowedDurations
+     */
+    static double nearestAllowedDuration(double beats) {
+        double nearest = allowedDurations[0];
+        for (double d : allowedDurations) {
+            if (Math.abs(d - beats) < Math.abs(nearest - beats)) {
+                nearest = d;
+            }
         }
-        mc.noteOff(this.midiNum, this.velocity);
+        return nearest;
+    }
+
+    /**
+     * Get the note with its octave change, as written in a chord (for
+     * example "G+1").
+     *
+     * @return the note name followed by the octave change, if any
+     */
+    String pitchName() {
+        return noteName + ((deltaOctave > 0) ? "+" + deltaOctave : (deltaOctave < 0) ? Integer.toString(deltaOctave) : "");
     }
 
     /**
@@ -105,14 +162,8 @@ public class Note {
      * @return the number of lines and spaces between the Note and middle C
      */
     int staffDistFromMidC() {
-        char[] order = {'C', 'D', 'E', 'F', 'G', 'A', 'B'};
-        int dist = 0;
-        for (int i = 0; i < 7; i++) {
-            if (Character.toString(order[i]).equals(noteName.replaceAll("#", "").replaceAll("b", ""))) {
-                dist = i;
-                break;
-            }
-        }
+        // only the letter counts (accidentals do not move a note on the staff); called for every note painted, so it must not allocate
+        int dist = Math.max(0, staffOrder.indexOf(noteName.charAt(0)));
         dist += 7 * deltaOctave;
         return dist;
     }
@@ -123,7 +174,40 @@ public class Note {
      * @return a String representation of the Note
      */
     String getName() {
-        return noteName + " duration=" + duration + " octave change=" + deltaOctave + " dynamic=" + dynamic_marking;
+        return appendName(new StringBuilder(64)).toString();
+    }
+
+    /**
+     * Append Note data (as given by getName()) to a StringBuilder, so that the
+     * data of many notes can be put together without a String for each.
+     * 
+     * @param name the StringBuilder to append to
+     * @return the same StringBuilder
+     */
+    StringBuilder appendName(StringBuilder name) {
+        name.append(noteName).append(" duration=").append(duration).append(" octave change=").append(deltaOctave).append(" dynamic=").append(dynamic_marking);
+        if (program != 0) {
+            name.append(" instrument=").append(program);
+        }
+        if (chord.length > 0) {
+            name.append(" chord=").append(noteName);
+            appendOctave(name);
+            for (Note c : chord) {
+                name.append(',').append(c.noteName);
+                c.appendOctave(name);
+            }
+        }
+        return name;
+    }
+
+    // append the octave change as written in a chord ("+1", "-2", or nothing)
+    private void appendOctave(StringBuilder name) {
+        if (deltaOctave > 0) {
+            name.append('+');
+        }
+        if (deltaOctave != 0) {
+            name.append(deltaOctave);
+        }
     }
 
 }
@@ -0,0 +1,192 @@
+package symphonia;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.MidiChannel;
+
+/**
+ * Plays tunes on a synthesizer.
+ *
+ * Any number of voices (lists of notes played one after the other) can be
+ * played at the same time. All the note on and note off events of all the
+ * voices are sent from a single thread (the one calling play()), in time
+ * order: a queue holds the next event of every voice (a k-way merge of the
+ * voices), and the thread waits until the earliest one is due, sends it, and
+ * queues whatever follows it. Playing k voices therefore takes one thread and
+ * a queue of at most 2k events. A chord is a single event: all its notes
+ * start and stop together.
+ *
+ * The VoiceAllocator decides which channel each note goes to, so voices and
+ * sections of a tune can use different instruments.
+ *
+ * Once a note has stopped, its event is kept for a later note, so playing
+ * allocates nothing per note (see AllocationBudget in the benchmarks) and
+ * cannot make the garbage collector interrupt a long tune.
+ *
+ * Every event is timed from the start of the tune rather than from the event
+ * before it, so small delays in waking up do not add up over a long tune. How
+ * late each event was sent is recorded in the "play.lateness" timer (see
+ * Metrics).
+ *
+ * One voice can be followed while it plays (see follow()): the note last
+ * started in it is published, so that other threads can show where playback
+ * has got to (see position() and Playhead).
+ */
+class Player {
+
+    // the most notes sounding at once (what most software synthesizers can manage)
+    static final int maxSounding = 64;
+
+    // a note on or note off, due a number of beats after the start of the tune
+    private static final class Event {
+
+        double beat;
+        boolean on;
+        Note note;
+        int voice;
+        int index; // of the note in its voice
+        Iterator<Note> rest; // the notes of the voice after this one
+        int channel;
+
+        // make this the note on of a note (events are reused once their note has stopped)
+        Event start(double beat, Note note, int voice, int index, Iterator<Note> rest) {
+            this.beat = beat;
+            this.on = true;
+            this.note = note;
+            this.voice = voice;
+            this.index = index;
+            this.rest = rest;
+            return this;
+        }
+    }
+
+    // earliest first; at the same time, notes stop before new ones start, and lower voices go first
+    private static final Comparator<Event> order = new Comparator<Event>() {
+        public int compare(Event a, Event b) {
+            if (a.beat != b.beat) {
+                return Double.compare(a.beat, b.beat);
+            }
+            if (a.on != b.on) {
+                return a.on ? 1 : -1;
+            }
+            return Integer.compare(a.voice, b.voice);
+        }
+    };
+
+    private final VoiceAllocator allocator;
+
+    // the voice being followed (-1 if none), and when the tune started and how long a beat is, in nanoseconds
+    private volatile int followed = -1;
+    private long base;
+    private double beatNanos;
+
+    // the index of the note of the followed voice last started (low 32 bits), and the beat it started
+    // on (high 32 bits, as a float), in one field so that they are always read together; -1 before
+    // the first note of the voice
+    private volatile long playing = -1;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param channels the channels of the synthesizer to play on
+     */
+    Player(MidiChannel[] channels) {
+        allocator = new VoiceAllocator(channels, maxSounding);
+    }
+
+    /**
+     * Play voices at the same time, returning when they have all finished.
+     *
+     * @param voices        the voices to play, each a list of notes
+     * @param beat_duration the duration (in seconds) of one beat
+     * @return true if the whole tune was played, false if the calling thread
+     *         was interrupted (in which case all notes are stopped at once)
+     */
+    boolean play(List<? extends List<Note>> voices, double beat_duration) {
+        PriorityQueue<Event> queue = new PriorityQueue<>(Math.max(1, 2 * voices.size()), order);
+        ArrayDeque<Event> spare = new ArrayDeque<>(); // events whose note has stopped
+        for (int v = 0; v < voices.size(); v++) {
+            Iterator<Note> it = voices.get(v).iterator();
+            if (it.hasNext()) {
+                queue.add(new Event().start(0, it.next(), v, 0, it));
+            }
+        }
+
+        int follow = followed;
+        playing = -1;
+        beatNanos = beat_duration * 1e9;
+        base = System.nanoTime();
+        while (!queue.isEmpty()) {
+            Event e = queue.poll();
+            long due = base + (long) (e.beat * beatNanos);
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+                if (Thread.currentThread().isInterrupted()) {
+                    allocator.allNotesOff();
+                    return false;
+                }
+            }
+            if (Metrics.enabled) {
+                Metrics.recordNanos("play.lateness", System.nanoTime() - due);
+            }
+
+            if (e.on) {
+                e.channel = allocator.noteOn(e.note);
+                Startup.sound();
+                if (e.voice == follow) {
+                    playing = (long) Float.floatToIntBits((float) e.beat) << 32 | e.index;
+                }
+
+                // the same event stops the note, and the next note of the voice starts at the same time
+                e.on = false;
+                e.beat += e.note.duration;
+                queue.add(e);
+                if (e.rest.hasNext()) {
+                    Event next = spare.isEmpty() ? new Event() : spare.pop();
+                    queue.add(next.start(e.beat, e.rest.next(), e.voice, e.index + 1, e.rest));
+                }
+            } else {
+                allocator.noteOff(e.note, e.channel);
+                spare.push(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Follow a voice while playing, so that position() can tell how far it
+     * has got. Must be called before play().
+     *
+     * @param voice the index of the voice in the list of voices played
+     */
+    void follow(int voice) {
+        followed = voice;
+    }
+
+    /**
+     * Find how far the followed voice has got: the note the scheduler last
+     * started in it, and how much of that note has been played since (by the
+     * same clock the scheduler uses). Can be called from any thread while the
+     * tune plays, and takes the same time however long the tune is.
+     *
+     * @param voice the notes of the followed voice
+     * @return the index of the note being played plus the part of it played
+     *         so far (so 3.5 is half way through note 3), or -1 if no note of
+     *         the voice has started yet
+     */
+    double position(List<Note> voice) {
+        long p = playing;
+        int index = (int) p;
+        if (p < 0 || index >= voice.size()) {
+            return -1;
+        }
+        double beat = (System.nanoTime() - base) / beatNanos;
+        double part = (beat - Float.intBitsToFloat((int) (p >>> 32))) / voice.get(index).duration;
+        return index + (part > 1 ? 1 : part > 0 ? part : 0);
+    }
+}
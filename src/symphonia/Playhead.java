@@ -0,0 +1,147 @@
+package symphonia;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import javax.swing.JComponent;
+import javax.swing.JLayer;
+import javax.swing.Timer;
+import javax.swing.plaf.LayerUI;
+
+/**
+ * Shows where playback has got to, as a thin bar drawn over the score (in a
+ * JLayer around the MainPanel), and scrolls the score to keep it in view.
+ *
+ * While a tune plays, a Swing timer moves the bar about sixty times a second.
+ * Its position comes from the Player: the index of the note the scheduler
+ * last started in the voice shown, and how much of that note has been played
+ * since, so the bar moves smoothly across each note even though the
+ * scheduler only publishes when a note starts. The bar is placed between the
+ * note and the next one using a ScoreIndex, and only the strips of the score
+ * under the old and the new bar are repainted, so each frame paints at most
+ * one system, however long the tune is. When the bar moves on to a system
+ * that is not fully in view, the score is scrolled to bring that system to
+ * the top.
+ *
+ * Between tunes, the timer only checks whether playback has started, ten
+ * times a second. A playhead is only used on the event dispatch thread.
+ */
+class Playhead extends LayerUI<MainPanel> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Color color = new Color(220, 0, 0, 160);
+    private static final int width = 3; // of the bar, in pixels
+
+    private static final int frameMillis = 16; // while playing
+    private static final int idleMillis = 100; // while waiting for playback to start
+
+    private final Session session;
+    private final Timer timer;
+
+    // the following are only used on the event dispatch thread
+    private JLayer<? extends MainPanel> layer; // the layer drawn on (null until installed)
+    private ScoreIndex index; // finds notes in the latest layout
+    private int system = -1; // the system the bar is on, or -1
+    private Rectangle shown; // where the bar is drawn, or null if it is not
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param session the session whose playback is shown (see Session.player)
+     */
+    Playhead(Session session) {
+        this.session = session;
+        timer = new Timer(idleMillis, new ActionListener() {
+
+            public void actionPerformed(ActionEvent e) {
+                update();
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void installUI(JComponent c) {
+        super.installUI(c);
+        layer = (JLayer<? extends MainPanel>) c;
+        timer.start();
+    }
+
+    @Override
+    public void uninstallUI(JComponent c) {
+        timer.stop();
+        layer = null;
+        super.uninstallUI(c);
+    }
+
+    @Override
+    public void paint(Graphics g, JComponent c) {
+        super.paint(g, c);
+        if (shown != null) {
+            Color old = g.getColor();
+            g.setColor(color);
+            g.fillRect(shown.x, shown.y, shown.width, shown.height);
+            g.setColor(old);
+        }
+    }
+
+    // move the bar to where playback is now
+    private void update() {
+        Player player = session.player;
+        ScoreLayout l = layer.getView().getScoreLayout();
+        double position = (player == null || l == null) ? -1 : player.position(l.notes);
+        if (position < 0) {
+            move(null);
+            system = -1;
+            timer.setDelay(player == null ? idleMillis : frameMillis);
+            return;
+        }
+        timer.setDelay(frameMillis);
+
+        // the system of the note (at the very end, the last note), checking the one the bar is on first
+        int i = Math.min((int) position, l.notes.size() - 1);
+        if (system < 0 || system >= l.systemCount() || i < l.systemStart(system) || i >= l.systemEnd(system)) {
+            system = l.systemOf(i);
+            scrollTo(l, system);
+        }
+
+        // between the note and the next one (or the end of the staff, after the last note of the system)
+        if (index == null || index.layout != l) {
+            index = new ScoreIndex(l);
+        }
+        double x = index.centerX(i);
+        double nextX = (i + 1 < l.systemEnd(system)) ? index.centerX(i + 1) : l.staffEndX;
+        x += (position - i) * (nextX - x);
+
+        int top = (int) l.systemTop(system);
+        move(new Rectangle((int) x - width / 2, top, width, (int) Math.ceil(l.systemBottom(system)) - top));
+    }
+
+    // draw the bar somewhere else (or nowhere), repainting only what it leaves and what it covers
+    private void move(Rectangle bar) {
+        if (bar == null ? shown == null : bar.equals(shown)) {
+            return;
+        }
+        if (shown != null) {
+            layer.repaint(shown);
+        }
+        shown = bar;
+        if (shown != null) {
+            layer.repaint(shown);
+        }
+    }
+
+    // bring a system to the top of the view, unless all of it is in view already
+    private void scrollTo(ScoreLayout l, int s) {
+        MainPanel p = layer.getView();
+        Rectangle visible = p.getVisibleRect();
+        int top = (int) l.systemTop(s);
+        int bottom = (int) Math.ceil(l.systemBottom(s));
+        if (top < visible.y || bottom > visible.y + visible.height) {
+            p.scrollRectToVisible(new Rectangle(0, top, visible.width, Math.max(visible.height, bottom - top)));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package symphonia;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * A change applied to every note in a range of the tune at once, such as
+ * transposing a passage.
+ *
+ * The new notes are computed from a copy of the range (on several threads if
+ * the range is large) and written back to the tune in one step, so the tune
+ * changes only once however many notes are changed, and the score is laid
+ * out and repainted only once. If any note cannot be changed (because it
+ * would go beyond the limits of the application) the tune is not changed at
+ * all.
+ */
+abstract class RangeTransform {
+
+    // ranges of at least this many notes are transformed in parallel
+    static final int parallelThreshold = 10000;
+
+    static final String[] sharpNames = {"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
+    private static final String[] flatNames = {"C", "Db", "D", "Eb", "E", "F", "Gb", "G", "Ab", "A", "Bb", "B"};
+
+    /**
+     * Transform one note.
+     *
+     * @param n the note to transform (never changed)
+     * @return the transformed note, or null if the note cannot be transformed
+     */
+    abstract Note apply(Note n);
+
+    /**
+     * Describe why a note could not be transformed.
+     *
+     * @return the reason, such as "would be more than 2 octaves above or below the middle octave"
+     */
+    abstract String limit();
+
+    // transform a note together with the other notes of its chord
+    private Note applyToChord(Note n) {
+        Note t = apply(n);
+        if (t == null || n.chord.length == 0) {
+            return t;
+        }
+        Note[] chord = new Note[n.chord.length];
+        for (int i = 0; i < chord.length; i++) {
+            chord[i] = apply(n.chord[i]);
+            if (chord[i] == null) {
+                return null;
+            }
+        }
+        t.chord = chord;
+        return t;
+    }
+
+    /**
+     * Transform the notes from one index to another (both included). The
+     * other notes of a chord are transformed along with it.
+     *
+     * @param tune the tune to change
+     * @param from the index of the first note to transform
+     * @param to   the index of the last note to transform
+     * @return null if all the notes were transformed, otherwise a message
+     *         saying which notes could not be (in which case the tune is
+     *         unchanged)
+     */
+    String run(Tune tune, int from, int to) {
+        final Note[] in = tune.subList(from, to + 1).toArray(new Note[to - from + 1]);
+        final Note[] out = new Note[in.length];
+        IntStream indices = IntStream.range(0, in.length);
+        if (in.length >= parallelThreshold) {
+            indices = indices.parallel();
+        }
+        indices.forEach(new IntConsumer() {
+            public void accept(int i) {
+                out[i] = applyToChord(in[i]);
+            }
+        });
+
+        int failed = 0;
+        int first = -1;
+        for (int i = 0; i < out.length; i++) {
+            if (out[i] == null) {
+                if (first < 0) {
+                    first = i;
+                }
+                failed++;
+            }
+        }
+        if (failed > 0) {
+            return failed + " of " + in.length + " notes " + limit() + " (the first is note " + (from + first) + ": " + in[first].getName() + "). The tune was not changed.\n";
+        }
+        tune.setRange(from, out);
+        return null;
+    }
+
+    /**
+     * Move notes up or down by a number of semitones. Black keys are written
+     * as flats if the original note was a flat, and as sharps otherwise.
+     *
+     * @param semitones the number of semitones to move up (or down, if negative)
+     * @return the transform
+     */
+    static RangeTransform transpose(final int semitones) {
+        return new RangeTransform() {
+            Note apply(Note n) {
+                int fromMidC = n.midiNum - Note.noteToMidiNum.get("C") + semitones;
+                int deltaOctave = Math.floorDiv(fromMidC, 12);
+                if (deltaOctave > 2 || deltaOctave < -2) {
+                    return null;
+                }
+                String[] names = n.noteName.contains("b") ? flatNames : sharpNames;
+                return new Note(names[Math.floorMod(fromMidC, 12)], n.duration, deltaOctave, n.dynamic_marking, n.program);
+            }
+
+            String limit() {
+                return "would be more than 2 octaves above or below the middle octave";
+            }
+        };
+    }
+
+    /**
+     * Give notes a new dynamic marking.
+     *
+     * @param dynamic the dynamic marking (a key of Note.dynamicToVelocity)
+     * @return the transform
+     */
+    static RangeTransform dynamic(final String dynamic) {
+        return new RangeTransform() {
+            Note apply(Note n) {
+                return new Note(n.noteName, n.duration, n.deltaOctave, dynamic, n.program);
+            }
+
+            String limit() {
+                return "cannot be given the dynamic " + dynamic;
+            }
+        };
+    }
+
+    /**
+     * Play notes on another instrument.
+     *
+     * @param program the General MIDI program (0 to 127) of the instrument
+     * @return the transform
+     */
+    static RangeTransform instrument(final int program) {
+        return new RangeTransform() {
+            Note apply(Note n) {
+                return new Note(n.noteName, n.duration, n.deltaOctave, n.dynamic_marking, program);
+            }
+
+            String limit() {
+                return "cannot be played on instrument " + program;
+            }
+        };
+    }
+
+    /**
+     * Give notes a new duration.
+     *
+     * @param duration the duration (one of Note.allowedDurations)
+     * @return the transform
+     */
+    static RangeTransform duration(final double duration) {
+        return new RangeTransform() {
+            Note apply(Note n) {
+                return new Note(n.noteName, duration, n.deltaOctave, n.dynamic_marking, n.program);
+            }
+
+            String limit() {
+                return "cannot be given the duration " + duration;
+            }
+        };
+    }
+
+    /**
+     * Multiply the durations of notes by a factor.
+     *
+     * @param factor the factor to multiply by
+     * @return the transform
+     */
+    static RangeTransform scaleDuration(final double factor) {
+        return new RangeTransform() {
+            Note apply(Note n) {
+                double duration = n.duration * factor;
+                if (Arrays.binarySearch(Note.allowedDurations, duration) < 0) {
+                    return null;
+                }
+                return new Note(n.noteName, duration, n.deltaOctave, n.dynamic_marking, n.program);
+            }
+
+            String limit() {
+                return "would not have an allowed duration " + Arrays.toString(Note.allowedDurations);
+            }
+        };
+    }
+}
@@ -0,0 +1,386 @@
+package symphonia;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small HTTP service that renders tunes: the client posts a command file and
+ * gets back a MIDI file, a WAV file or a PNG image of the score (of the first
+ * voice, if the tune has several).
+ *
+ * POST /render/midi, /render/wav or /render/png, with the command file as the
+ * request body (the "Symphonia Command File" line is optional). Only the
+ * commands that build a tune may be used (see allowedCommands), and the tune
+ * may have at most maxNotes notes in all; anything else is refused with "400
+ * Bad Request" or "413 Payload Too Large". The query
+ * parameters beat (seconds per beat), dynamic (starting dynamic) and, for PNG,
+ * page (starting from 1) may be given. GET /status reports request counts.
+ *
+ * The server only listens on the loopback interface. Each request runs on its
+ * own virtual thread when the JVM supports them, and on a pooled thread
+ * otherwise. At most a fixed number of requests are rendered at the same time;
+ * a bounded number more may wait for their turn, and any others are turned
+ * away at once with "503 Service Unavailable" so that load beyond what the
+ * machine can handle does not pile up. WAV files are rendered with a fixed
+ * pool of synthesizers that are created when the server starts.
+ *
+ * java -cp Symphonia.jar symphonia.RenderServer [--port PORT] [--max-active N] [--max-waiting N] [--synths N]
+ */
+public class RenderServer {
+
+    private static final String usage = "Usage: RenderServer [--port <port>] [--max-active <count>] [--max-waiting <count>] [--synths <count>]";
+
+    // requests with larger bodies are refused
+    private static final int maxBodyBytes = 16 * 1024 * 1024;
+
+    // the commands a posted command file may use: those that build the tune, and none that read or
+    // write files, use the server's own sound devices, or only print
+    private static final Set<String> allowedCommands = new HashSet<>(Arrays.asList(
+            "add", "chord", "voice", "remove", "replace", "transpose", "dynamic", "duration",
+            "instrument", "scale-duration", "repeat", "copy", "generate"));
+
+    // the most notes a posted tune may have, in all its voices
+    static final int maxNotes = 100000;
+
+    // how long a request may wait for its turn (or for a synthesizer) before it is refused
+    private static final long waitMillis = 2000;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    // admission control
+    private final Semaphore active;
+    private final int maxWaiting;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    // synthesizers ready to render WAV files
+    private final BlockingQueue<ToneSynth> synths;
+
+    // page size of PNG images (A4 at 96 dots per inch)
+    private final Engraver engraver = new Engraver(794, 1123, "png");
+
+    private final AtomicLong served = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Parameterized constructor. Creates (but does not start) the server.
+     *
+     * @param port       the port to listen on
+     * @param maxActive  the number of requests that may be rendered at the same time
+     * @param maxWaiting the number of requests that may wait for their turn
+     * @param synthCount the number of synthesizers to keep for rendering WAV files
+     * @throws IOException if the port cannot be bound
+     */
+    public RenderServer(int port, int maxActive, int maxWaiting, int synthCount) throws IOException {
+        this.active = new Semaphore(maxActive);
+        this.maxWaiting = maxWaiting;
+        this.synths = new ArrayBlockingQueue<>(synthCount);
+        for (int i = 0; i < synthCount; i++) {
+            ToneSynth synth = new ToneSynth();
+            synth.render(69, 64, ToneSynth.sampleRate); // grow the synthesizer's buffer ahead of time
+            synths.add(synth);
+        }
+
+        this.executor = requestExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/render/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                handleRender(exchange);
+            }
+        });
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String status = "active=" + (maxActive - active.availablePermits()) + " waiting=" + waiting.get()
+                        + " served=" + served.get() + " rejected=" + rejected.get() + " failed=" + failed.get() + "\n";
+                respond(exchange, 200, status);
+            }
+        });
+    }
+
+    /**
+     * Create the executor that requests are handled on: a new virtual thread
+     * for every request if the JVM supports virtual threads (Java 21 and
+     * later), or a pool of ordinary threads otherwise.
+     */
+    private static ExecutorService requestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Start accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stop accepting requests, and stop the server once the requests being
+     * handled have finished (or after a delay).
+     *
+     * @param delaySeconds the longest time to wait for requests to finish
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    /**
+     * Get the address the server is listening on.
+     *
+     * @return the address of the server
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void handleRender(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Use POST.\n");
+                return;
+            }
+
+            // admission control: take a turn if one is free, otherwise wait for one
+            // if there is room to wait, and turn the request away if there is not
+            if (!active.tryAcquire()) {
+                if (waiting.incrementAndGet() > maxWaiting) {
+                    waiting.decrementAndGet();
+                    reject(exchange);
+                    return;
+                }
+                boolean admitted;
+                try {
+                    admitted = active.tryAcquire(waitMillis, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ex) {
+                    admitted = false;
+                } finally {
+                    waiting.decrementAndGet();
+                }
+                if (!admitted) {
+                    reject(exchange);
+                    return;
+                }
+            }
+
+            try {
+                render(exchange);
+            } finally {
+                active.release();
+            }
+        } catch (IOException | RuntimeException ex) {
+            failed.incrementAndGet();
+            throw ex;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void render(HttpExchange exchange) throws IOException {
+        String format = exchange.getRequestURI().getPath().substring("/render/".length());
+        if (!format.equals("midi") && !format.equals("wav") && !format.equals("png")) {
+            respond(exchange, 404, "Unknown format: " + format + ". Use midi, wav or png.\n");
+            return;
+        }
+
+        // read the parameters
+        Map<String, String> params = query(exchange.getRequestURI().getRawQuery());
+        double beat_duration;
+        int page;
+        try {
+            beat_duration = Double.parseDouble(params.containsKey("beat") ? params.get("beat") : "0.5");
+            page = Integer.parseInt(params.containsKey("page") ? params.get("page") : "1");
+        } catch (NumberFormatException ex) {
+            respond(exchange, 400, "Invalid number.\n");
+            return;
+        }
+        String dynamic = params.containsKey("dynamic") ? params.get("dynamic") : "mf";
+        if (beat_duration <= 0 || !Note.dynamicToVelocity.containsKey(dynamic)) {
+            respond(exchange, 400, "Invalid beat duration or dynamic.\n");
+            return;
+        }
+
+        // read the command file
+        byte[] body = readBody(exchange.getRequestBody());
+        if (body == null) {
+            respond(exchange, 413, "Command file is too large.\n");
+            return;
+        }
+        BufferedReader in = new BufferedReader(new StringReader(new String(body, "UTF-8")));
+        in.mark(256);
+        String first = in.readLine();
+        if (first == null || !first.equalsIgnoreCase(CommandFile.HEADER)) {
+            in.reset();
+        }
+
+        // run the commands in a session of their own, refusing any that is not allowed and any tune that gets too long
+        Session session = new Session(beat_duration, dynamic);
+        session.maxNotes = maxNotes;
+        StringBuilder feedback = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals("")) {
+                continue;
+            }
+            String command = Session.commandName(line);
+            if (!allowedCommands.contains(command)) {
+                respond(exchange, 400, feedback + command + " - Not allowed in a rendered command file.\n");
+                return;
+            }
+            String result = session.execute(line);
+            feedback.append(result);
+            if (result.startsWith(Symphonia.tooManyNotes) || Tune.totalSize(session.voices) > maxNotes) {
+                respond(exchange, 413, "Tune is too long. At most " + maxNotes + " notes can be rendered.\n");
+                return;
+            }
+        }
+        List<Tune> voices = session.voices;
+
+        // render the tune
+        if (format.equals("midi")) {
+            exchange.getResponseHeaders().set("Content-Type", "audio/midi");
+            exchange.sendResponseHeaders(200, 0);
+            MidiFile.write(voices, beat_duration, exchange.getResponseBody());
+        } else if (format.equals("wav")) {
+            ToneSynth synth;
+            try {
+                synth = synths.poll(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                synth = null;
+            }
+            if (synth == null) {
+                reject(exchange);
+                return;
+            }
+            try {
+                exchange.getResponseHeaders().set("Content-Type", "audio/wav");
+                exchange.sendResponseHeaders(200, 0);
+                synth.writeWav(voices, beat_duration, exchange.getResponseBody());
+            } finally {
+                synths.add(synth);
+            }
+        } else {
+            ScoreLayout l = engraver.layout(voices.get(0));
+            int[] pages = engraver.paginate(l);
+            if (page < 1 || page > pages.length - 1) {
+                respond(exchange, 404, "No such page. The score has " + (pages.length - 1) + " page(s).\n");
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.getResponseHeaders().set("X-Page-Count", Integer.toString(pages.length - 1));
+            exchange.sendResponseHeaders(200, 0);
+            engraver.writePage(l, pages, page - 1, new ScoreRenderer(), exchange.getResponseBody());
+        }
+        served.incrementAndGet();
+    }
+
+    private void reject(HttpExchange exchange) throws IOException {
+        rejected.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", "1");
+        respond(exchange, 503, "Too many requests. Try again later.\n");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException {
+        // read the body, giving up if it is too large
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int read;
+        while ((read = in.read(buf)) != -1) {
+            if (body.size() + read > maxBodyBytes) {
+                return null;
+            }
+            body.write(buf, 0, read);
+        }
+        return body.toByteArray();
+    }
+
+    private static Map<String, String> query(String rawQuery) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Start a render server.
+     *
+     * @param args command line arguments; see the usage message
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxActive = cores;
+        int maxWaiting = 4 * cores;
+        int synthCount = cores;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--port")) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--max-active")) {
+                    maxActive = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--max-waiting")) {
+                    maxWaiting = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--synths")) {
+                    synthCount = Integer.parseInt(args[++i]);
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+            if (maxActive < 1 || maxWaiting < 0 || synthCount < 1) {
+                throw new IllegalArgumentException();
+            }
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+
+        RenderServer s = new RenderServer(port, maxActive, maxWaiting, synthCount);
+        s.start();
+        System.out.println("Symphonia render server listening on http://" + s.getAddress().getHostString() + ":" + s.getAddress().getPort() + "/");
+    }
+}
@@ -0,0 +1,102 @@
+package symphonia;
+
+/**
+ * Finds the note at a point of the score, so that notes can be picked with
+ * the mouse.
+ *
+ * Systems are placed one below the other, and the notes of a system from left
+ * to right, so no general spatial index is needed: the system at a point is
+ * found with a binary search over the systems (see
+ * ScoreLayout.firstSystemBelow), and the note with a binary search over the
+ * positions of the notes of that system. Those positions are not part of the
+ * layout (see ScoreLayout), so they are worked out the first time a system is
+ * searched and kept for later searches. A system holds at most as many notes
+ * as fit across the score, so after that every search takes time logarithmic
+ * in the length of the tune, and only the systems that have been pointed at
+ * take up memory.
+ *
+ * An index belongs to one layout, and is only used on the event dispatch
+ * thread.
+ */
+class ScoreIndex {
+
+    // how far (horizontally) from the center of a note head a point still picks the note
+    static final double tolerance = 10;
+
+    final ScoreLayout layout;
+    private final double[][] centers; // the x co-ordinate of every note of each system (null until needed)
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param layout the layout to find notes in
+     */
+    ScoreIndex(ScoreLayout layout) {
+        this.layout = layout;
+        centers = new double[layout.systemCount()][];
+    }
+
+    /**
+     * Find the note at a point.
+     *
+     * @param x the x co-ordinate of the point
+     * @param y the y co-ordinate of the point
+     * @return the index of the note whose column (within its system) contains
+     *         the point, or -1 if there is none
+     */
+    int noteAt(double x, double y) {
+        int s = layout.firstSystemBelow(y);
+        if (s == layout.systemCount() || layout.systemTop(s) > y) {
+            return -1;
+        }
+        double[] c = centers(s);
+
+        // the first note whose center is at or right of x, or the note before it, whichever is nearer
+        int lo = 0;
+        int hi = c.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (c[mid] < x) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == c.length || (lo > 0 && x - c[lo - 1] < c[lo] - x)) {
+            lo--;
+        }
+        if (lo < 0 || Math.abs(c[lo] - x) > tolerance) {
+            return -1;
+        }
+        return layout.systemStart(s) + lo;
+    }
+
+    /**
+     * Get the horizontal position of a note.
+     *
+     * @param index the index of the note
+     * @return the x co-ordinate of the center of the note head
+     */
+    double centerX(int index) {
+        int s = layout.systemOf(index);
+        return centers(s)[index - layout.systemStart(s)];
+    }
+
+    // the positions of the notes of a system, placed as ScoreRenderer.paintSystem places them
+    private double[] centers(int system) {
+        if (centers[system] == null) {
+            int start = layout.systemStart(system);
+            double[] c = new double[layout.systemEnd(system) - start];
+            double prevCenterX = ScoreLayout.staffStartX;
+            double prevDuration = 1;
+            for (int i = 0; i < c.length; i++) {
+                Note n = layout.notes.get(start + i);
+                c[i] = ScoreLayout.nextCenterX(prevCenterX, prevDuration, n);
+                prevCenterX = c[i];
+                prevDuration = n.duration;
+            }
+            centers[system] = c;
+        }
+        return centers[system];
+    }
+}
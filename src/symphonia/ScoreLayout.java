@@ -0,0 +1,295 @@
+package symphonia;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The layout of a tune on the score: which notes go on which system (set of
+ * staff lines), and where each system is placed vertically.
+ *
+ * A layout is computed once for a given list of notes and is never changed
+ * afterwards. Only per-system information is stored, so that the layout of a
+ * very long tune stays small; the horizontal position of each note is worked
+ * out again (using nextCenterX) when the system containing it is drawn.
+ *
+ * The vertical bounds of the systems increase from one system to the next, so
+ * the systems that intersect any region of the score are found with a binary
+ * search instead of by looking at every system.
+ *
+ * When a tune is changed, the new layout can be computed from the old one:
+ * the systems before the first changed note stay exactly where they were, so
+ * only the rest of the tune needs to be laid out again.
+ */
+class ScoreLayout {
+
+    // constants describing the geometry of the score
+    static final double staffStartX = 50;
+    static final double firstStaffY = 50;
+
+    static final int staffDistance = 10;
+    static final int beatDistance = 30;
+
+    static final int sharpLineLength = 13; // width of '#' (sharp) sign
+    static final int flatWidth = 10; // width of 'b' (flat) sign
+
+    static final int noteStalkHeight = 30;
+
+    // the number of lines and spaces between the top line of the staff and middle C
+    static final int topStaffDist = 10;
+
+    final List<Note> notes;
+    final double staffEndX;
+
+    private final int systemCount;
+    private final int[] systemStart; // index of the first note of each system (plus one past the end)
+    private final double[] staffTop; // y co-ordinate of the top staff line of each system
+    private final double[] systemTop; // highest y co-ordinate drawn on by each system
+    private final double[] systemBottom; // lowest y co-ordinate drawn on by each system
+    private final int reusedSystems; // the number of systems taken unchanged from an earlier layout
+
+    private ScoreLayout(List<Note> notes, double staffEndX, int systemCount, int[] systemStart, double[] staffTop, double[] systemTop, double[] systemBottom, int reusedSystems) {
+        this.notes = notes;
+        this.reusedSystems = reusedSystems;
+        this.staffEndX = staffEndX;
+        this.systemCount = systemCount;
+        this.systemStart = systemStart;
+        this.staffTop = staffTop;
+        this.systemTop = systemTop;
+        this.systemBottom = systemBottom;
+    }
+
+    /**
+     * Lay out a list of notes on a score of a given width. The list must not
+     * be changed while (or after) the layout is computed.
+     *
+     * @param notes the notes to lay out
+     * @param width the width of the score
+     * @return the computed layout
+     */
+    static ScoreLayout compute(List<Note> notes, double width) {
+        return update(null, notes, width);
+    }
+
+    /**
+     * Lay out a changed tune, reusing the systems of its previous layout that
+     * the changes do not affect. Notes are compared by identity: the changes
+     * are taken to start at the first note that is not the same object as in
+     * the previous layout.
+     *
+     * @param previous the layout of the tune before it was changed (or null)
+     * @param notes    the notes to lay out
+     * @param width    the width of the score
+     * @return the computed layout
+     */
+    static ScoreLayout update(ScoreLayout previous, List<Note> notes, double width) {
+        double staffEndX = width - 50;
+
+        // a system is unaffected if no note up to the one that started the next system changed
+        int reused = 0;
+        if (previous != null && previous.staffEndX == staffEndX) {
+            int common = Math.min(previous.notes.size(), notes.size());
+            int changed = 0;
+            while (changed < common && previous.notes.get(changed) == notes.get(changed)) {
+                changed++;
+            }
+            while (reused < previous.systemCount && previous.systemStart[reused + 1] < changed) {
+                reused++;
+            }
+        }
+        int first = (reused > 0) ? previous.systemStart[reused] : 0;
+
+        // break the rest of the tune into systems
+        int[] starts = new int[Math.max(16, reused + 1)];
+        if (reused > 0) {
+            System.arraycopy(previous.systemStart, 0, starts, 0, reused);
+        }
+        int count = reused;
+        double prevCenterX = staffStartX;
+        double prevDuration = 1;
+        for (int index = first; index < notes.size(); index++) {
+            Note n = notes.get(index);
+            double centerX = nextCenterX(prevCenterX, prevDuration, n);
+            if (index == first || centerX > staffEndX) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                }
+                starts[count++] = index;
+                centerX = nextCenterX(staffStartX, 1, n);
+            }
+            prevCenterX = centerX;
+            prevDuration = n.duration;
+        }
+        int[] systemStart = Arrays.copyOf(starts, count + 1);
+        systemStart[count] = notes.size();
+
+        // place the systems one below the other, leaving room for notes above and below each staff
+        double[] staffTop = new double[count];
+        double[] systemTop = new double[count];
+        double[] systemBottom = new double[count];
+        double prevBottom = firstStaffY - 3 * staffDistance; // the space above the first system
+        if (reused > 0) {
+            System.arraycopy(previous.staffTop, 0, staffTop, 0, reused);
+            System.arraycopy(previous.systemTop, 0, systemTop, 0, reused);
+            System.arraycopy(previous.systemBottom, 0, systemBottom, 0, reused);
+            prevBottom = systemBottom[reused - 1] - 2 * staffDistance;
+        }
+        for (int s = reused; s < count; s++) {
+            int max = Integer.MIN_VALUE;
+            int min = Integer.MAX_VALUE;
+            for (int i = systemStart[s]; i < systemStart[s + 1]; i++) {
+                Note n = notes.get(i);
+                int dist = n.staffDistFromMidC();
+                max = Math.max(max, dist);
+                min = Math.min(min, dist);
+                for (Note c : n.chord) {
+                    dist = c.staffDistFromMidC();
+                    max = Math.max(max, dist);
+                    min = Math.min(min, dist);
+                }
+            }
+
+            double offset = 0;
+            if (max > topStaffDist) {
+                offset = ((max - topStaffDist) / 2 + 1) * staffDistance;
+            }
+
+            staffTop[s] = prevBottom + 3 * staffDistance + offset;
+            double middleEY = staffTop[s] + 4 * staffDistance;
+            double highestY = centerY(middleEY, max);
+            double lowestY = centerY(middleEY, min);
+
+            systemTop[s] = Math.min(staffTop[s], highestY - noteStalkHeight) - staffDistance;
+            systemBottom[s] = Math.max(middleEY, lowestY) + 2 * staffDistance;
+            prevBottom = Math.max(middleEY, lowestY);
+        }
+
+        return new ScoreLayout(notes, staffEndX, count, systemStart, staffTop, systemTop, systemBottom, reused);
+    }
+
+    /**
+     * Calculate the horizontal position of the center of a note, given the
+     * position and duration of the note before it. The space needed for the
+     * note's accidental (if any) is included; for a chord, the space needed
+     * for the widest accidental of the chord.
+     *
+     * @param prevCenterX  the center of the previous note
+     * @param prevDuration the duration of the previous note
+     * @param n            the note to place
+     * @return the horizontal position of the center of the note head
+     */
+    static double nextCenterX(double prevCenterX, double prevDuration, Note n) {
+        double centerX = prevCenterX + prevDuration * beatDistance;
+        if (prevDuration == 0.25 || prevDuration == 0.5) {
+            centerX = prevCenterX + 20;
+        }
+        double accidental = accidentalWidth(n);
+        for (Note c : n.chord) {
+            accidental = Math.max(accidental, accidentalWidth(c));
+        }
+        return centerX + accidental;
+    }
+
+    private static double accidentalWidth(Note n) {
+        return (n.noteName.contains("#")) ? sharpLineLength : (n.noteName.contains("b")) ? flatWidth : 0;
+    }
+
+    /**
+     * Calculate the vertical position of the center of a note head.
+     *
+     * @param middleEY the y co-ordinate of the bottom staff line (E above middle C)
+     * @param dist     the number of lines and spaces between the note and middle C
+     * @return the y co-ordinate of the center of the note head
+     */
+    static double centerY(double middleEY, int dist) {
+        return middleEY - (dist - 2) * (staffDistance / 2);
+    }
+
+    int systemCount() {
+        return systemCount;
+    }
+
+    int systemStart(int system) {
+        return systemStart[system];
+    }
+
+    int systemEnd(int system) {
+        return systemStart[system + 1];
+    }
+
+    double staffTop(int system) {
+        return staffTop[system];
+    }
+
+    double systemTop(int system) {
+        return systemTop[system];
+    }
+
+    double systemBottom(int system) {
+        return systemBottom[system];
+    }
+
+    /**
+     * Get the top of the part of the score that may look different from the
+     * layout this one was computed from (see update).
+     *
+     * @return the y co-ordinate below which the score has to be repainted
+     */
+    double changedTop() {
+        if (reusedSystems < systemCount) {
+            return systemTop[reusedSystems];
+        }
+        return (reusedSystems == 0) ? 0 : systemBottom[reusedSystems - 1];
+    }
+
+    /**
+     * Get the total height of the score.
+     *
+     * @return the height needed to draw every system
+     */
+    double height() {
+        return (systemCount == 0) ? 0 : systemBottom[systemCount - 1] + firstStaffY;
+    }
+
+    /**
+     * Find the system a note is on.
+     *
+     * @param index the index of the note (in notes)
+     * @return the index of the system containing the note
+     */
+    int systemOf(int index) {
+        int lo = 0;
+        int hi = systemCount - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (systemStart[mid] <= index) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Find the first system that reaches down to a given y co-ordinate or
+     * below it. Together with systemTop this gives all the systems visible in
+     * a region of the score.
+     *
+     * @param y the y co-ordinate of the top of the region
+     * @return the index of the first system ending at or below y, or
+     *         systemCount() if there is none
+     */
+    int firstSystemBelow(double y) {
+        int lo = 0;
+        int hi = systemCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (systemBottom[mid] < y) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
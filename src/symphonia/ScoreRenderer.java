@@ -0,0 +1,239 @@
+package symphonia;
+
+import java.awt.Graphics2D;
+import java.awt.geom.CubicCurve2D;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Draws a laid out tune in sheet music form on any Graphics2D: the main panel
+ * of the application, an image, or an SVG document. The notes of a chord are
+ * drawn as note heads stacked on a single stalk.
+ *
+ * A renderer reuses the same shape objects for every glyph it draws, and
+ * allocates nothing itself while painting, so it must only be used by one
+ * thread at a time. Threads that draw scores in parallel each need their own
+ * renderer.
+ */
+class ScoreRenderer {
+
+    // initialize constants used when drawing
+    private final int staffDistance = ScoreLayout.staffDistance;
+    private final int sharpLineLength = ScoreLayout.sharpLineLength;
+    private final int flatWidth = ScoreLayout.flatWidth;
+
+    private final int noteHeadBreadth = 10;
+    private final int noteHeadHeight = 7;
+    private final double dotRadius = 2.5; // for dotted notes
+
+    private final int noteStalkHeight = ScoreLayout.noteStalkHeight;
+
+    // sorts the notes of a chord from the lowest on the staff to the highest
+    private static final Comparator<Note> lowestFirst = new Comparator<Note>() {
+        public int compare(Note a, Note b) {
+            return Integer.compare(a.staffDistFromMidC(), b.staffDistFromMidC());
+        }
+    };
+
+    // shapes reused for every glyph
+    private final Line2D.Double line = new Line2D.Double();
+    private final Ellipse2D.Double ellipse = new Ellipse2D.Double();
+    private final CubicCurve2D.Double curve = new CubicCurve2D.Double();
+    private Note[] heads = new Note[4]; // the heads of a chord, while it is drawn
+
+    /**
+     * Draw the systems of a layout that intersect a horizontal band of the
+     * score.
+     *
+     * @param g2   the graphics object to draw on
+     * @param l    the layout to draw
+     * @param minY the top of the band
+     * @param maxY the bottom of the band
+     */
+    void paint(Graphics2D g2, ScoreLayout l, double minY, double maxY) {
+        for (int s = l.firstSystemBelow(minY); s < l.systemCount() && l.systemTop(s) <= maxY; s++) {
+            paintSystem(g2, l, s);
+        }
+    }
+
+    /**
+     * Draw one system (a set of staff lines and the notes on it).
+     *
+     * @param g2     the graphics object to draw on
+     * @param l      the layout containing the system
+     * @param system the index of the system to draw
+     */
+    void paintSystem(Graphics2D g2, ScoreLayout l, int system) {
+        // draw the stave
+        double staffStartX = ScoreLayout.staffStartX;
+        double staffEndX = l.staffEndX;
+        double staffStartY = l.staffTop(system);
+        for (int i = 0; i < 5; i++) {
+            drawLine(g2, staffStartX, staffStartY + i * staffDistance, staffEndX, staffStartY + i * staffDistance);
+        }
+
+        double middleEY = staffStartY + 4 * staffDistance;
+
+        // draw the notes and dynamic markings
+        double prevCenterX = staffStartX;
+        double prevDuration = 1;
+        double centerX;
+        double centerY;
+        String prevDynamic = (l.systemStart(system) == 0) ? "" : l.notes.get(l.systemStart(system) - 1).dynamic_marking;
+
+        for (int index = l.systemStart(system); index < l.systemEnd(system); index++) {
+            Note n = l.notes.get(index);
+
+            centerX = ScoreLayout.nextCenterX(prevCenterX, prevDuration, n);
+
+            // draw the note heads of the note (and of the rest of its chord, stacked on the same stalk)
+            double bottomY;
+            if (n.chord.length == 0) {
+                centerY = paintHead(g2, n, centerX, centerX, middleEY, staffStartY);
+                bottomY = centerY;
+            } else {
+                int count = n.chord.length + 1;
+                if (heads.length < count) {
+                    heads = new Note[count];
+                }
+                heads[0] = n;
+                System.arraycopy(n.chord, 0, heads, 1, n.chord.length);
+                Arrays.sort(heads, 0, count, lowestFirst);
+                centerY = Double.MAX_VALUE;
+                bottomY = -Double.MAX_VALUE;
+                boolean shifted = false;
+                for (int i = 0; i < count; i++) {
+                    // a head a second above an unshifted one goes on the other side of the stalk, so they do not overlap
+                    shifted = i > 0 && !shifted && heads[i].staffDistFromMidC() - heads[i - 1].staffDistFromMidC() == 1;
+                    double y = paintHead(g2, heads[i], centerX, shifted ? centerX + noteHeadBreadth : centerX, middleEY, staffStartY);
+                    centerY = Math.min(centerY, y);
+                    bottomY = Math.max(bottomY, y);
+                }
+            }
+
+            // draw the stalk (from the lowest head to above the highest) and the flags of the note
+            if (n.duration != 4) { // semibreves have no stalk
+                drawLine(g2, centerX + noteHeadBreadth / 2, bottomY, centerX + noteHeadBreadth / 2, centerY - noteStalkHeight);
+            }
+            if (n.duration == 0.25 || n.duration == 0.5) { // for semi-quavers and quavers
+                // draw the first curve of the flag
+                double ctrl1X = centerX + noteHeadBreadth * (7 / 10);
+                double ctrl1Y = centerY - 0.75 * noteStalkHeight;
+                double ctrl2X = centerX + 1.25 * noteHeadBreadth;
+                double ctrl2Y = centerY - noteStalkHeight * (5 / 8);
+                double startX = centerX + noteHeadBreadth / 2;
+                double startY = centerY - noteStalkHeight;
+                double endX = centerX + noteHeadBreadth;
+                double endY = centerY - noteStalkHeight / 2;
+                curve.setCurve(startX, startY, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, endX, endY);
+                g2.draw(curve);
+
+                if (n.duration == 0.25) {
+                    // draw the second curve of the flag
+                    startY += 7.5;
+                    ctrl1Y += 7.5;
+                    ctrl2Y += 7.5;
+                    endY += 7.5;
+                    curve.setCurve(startX, startY, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, endX, endY);
+                    g2.draw(curve);
+                }
+            }
+
+            // draw dynamic markings as strings (only if the dynamic marking is not the same as that of the previous note)
+            if (!n.dynamic_marking.equals(prevDynamic)) {
+                g2.drawString(n.dynamic_marking, (int) centerX, (int) (Math.max(bottomY, middleEY) + 1.5 * staffDistance));
+            }
+
+            // prepare variables for next iteration
+            prevCenterX = centerX;
+            prevDuration = n.duration;
+            prevDynamic = n.dynamic_marking;
+        }
+    }
+
+    /**
+     * Draw the head of a note, with its accidental, dot and leger lines (but
+     * not its stalk).
+     *
+     * @param g2          the graphics object to draw on
+     * @param n           the note to draw
+     * @param centerX     the x co-ordinate of the center of the note (its accidental goes before it)
+     * @param headX       the x co-ordinate of the center of the note head (centerX, unless the
+     *                    head is moved aside to make room for another head of a chord)
+     * @param middleEY    the y co-ordinate of the bottom staff line
+     * @param staffStartY the y co-ordinate of the top staff line
+     * @return the y co-ordinate of the center of the note head
+     */
+    private double paintHead(Graphics2D g2, Note n, double centerX, double headX, double middleEY, double staffStartY) {
+        double centerY = ScoreLayout.centerY(middleEY, n.staffDistFromMidC());
+
+        // draw accidentals
+        if (n.noteName.contains("#")) {
+            double sharpCenterX = centerX - sharpLineLength; // the center of the sharp symbol is before the note's center
+            // draw the '#' (sharp) shymbol
+            drawLine(g2, sharpCenterX - (sharpLineLength / 2), centerY - (staffDistance / 2) + (staffDistance / 4.5), sharpCenterX + (sharpLineLength / 2), centerY - (staffDistance / 2) + (staffDistance / 4.5));
+            drawLine(g2, sharpCenterX - (sharpLineLength / 2), centerY + (staffDistance / 2) - (staffDistance / 4.5), sharpCenterX + (sharpLineLength / 2), centerY + (staffDistance / 2) - (staffDistance / 4.5));
+            drawLine(g2, sharpCenterX - (sharpLineLength / 4), centerY + (staffDistance / 2), sharpCenterX - (sharpLineLength / 4), centerY - (staffDistance / 2));
+            drawLine(g2, sharpCenterX + (sharpLineLength / 4), centerY + (staffDistance / 2), sharpCenterX + (sharpLineLength / 4), centerY - (staffDistance / 2));
+        } else if (n.noteName.contains("b")) {
+            double flatCenterX = centerX - flatWidth; // the center of the flat symbol is before the note's center
+
+            // draw straight line of flat symbol
+            drawLine(g2, flatCenterX - 0.5 * flatWidth, centerY - 1.5 * staffDistance, flatCenterX - 0.5 * flatWidth, centerY + 0.5 * staffDistance);
+
+            // draw the curved part of the flat symbol (b) using a cubic curve
+            double startX = flatCenterX - 0.5 * flatWidth;
+            double startY = centerY - 0.25 * staffDistance;
+            double endX = flatCenterX - 0.5 * flatWidth;
+            double endY = centerY + 0.5 * staffDistance;
+            double ctrl1X = flatCenterX;
+            double ctrl1Y = centerY - 0.5 * staffDistance;
+            double ctrl2X = flatCenterX + 0.5 * flatWidth;
+            double ctrl2Y = centerY - 0.25 * staffDistance;
+            curve.setCurve(startX, startY, ctrl1X, ctrl1Y, ctrl2X, ctrl2Y, endX, endY);
+            g2.draw(curve);
+        }
+        double cornerX = headX - (noteHeadBreadth / 2); // calculate the X value of the top left corner of the note head
+        double cornerY = centerY - (noteHeadHeight / 2); // calculate the Y value of the top left corner of the note head
+
+        // draw the note head: filled up to dotted crotchets, hollow from minims on
+        if (n.duration <= 1.5) {
+            fillEllipse(g2, cornerX, cornerY, noteHeadBreadth, noteHeadHeight);
+        } else {
+            drawEllipse(g2, cornerX, cornerY, noteHeadBreadth, noteHeadHeight);
+        }
+        if (n.duration == 1.5 || n.duration == 3) { // for dotted notes
+            fillEllipse(g2, cornerX + 1.35 * noteHeadBreadth, cornerY + 0.15 * noteHeadHeight, dotRadius, dotRadius); // draw the dot in front of the note
+        }
+
+        // draw leger lines if required
+        int dist = n.staffDistFromMidC();
+        if (dist <= 0) {
+            for (double y = middleEY; y <= centerY; y += staffDistance) {
+                drawLine(g2, headX - 10, y, headX + 10, y);
+            }
+        } else if (dist > ScoreLayout.topStaffDist) {
+            for (double y = staffStartY; y >= centerY; y -= staffDistance) {
+                drawLine(g2, headX - 10, y, headX + 10, y);
+            }
+        }
+        return centerY;
+    }
+
+    private void drawLine(Graphics2D g2, double x1, double y1, double x2, double y2) {
+        line.setLine(x1, y1, x2, y2);
+        g2.draw(line);
+    }
+
+    private void drawEllipse(Graphics2D g2, double x, double y, double w, double h) {
+        ellipse.setFrame(x, y, w, h);
+        g2.draw(ellipse);
+    }
+
+    private void fillEllipse(Graphics2D g2, double x, double y, double w, double h) {
+        ellipse.setFrame(x, y, w, h);
+        g2.fill(ellipse);
+    }
+}
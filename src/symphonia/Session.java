@@ -0,0 +1,288 @@
+package symphonia;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.sound.sampled.LineUnavailableException;
+
+/**
+ * A Symphonia session: one tune, together with the settings used to edit and
+ * play it (the duration of a beat, the current dynamic and instrument, and
+ * whether add mode, audition and recording are on), and the commands that
+ * work on them.
+ *
+ * A tune has one or more voices, which are played at the same time. Each
+ * voice is a Tune of its own; the voice being edited (and shown) is the
+ * session's tune, and commands that work on notes work on that voice.
+ *
+ * Sessions share no mutable state, so any number of them can be used at the
+ * same time on different threads. A single session is not thread safe and
+ * should only be used by one thread at a time. (Notes recorded from a MIDI
+ * keyboard arrive on another thread, so they are queued, and only added to
+ * the tune by the thread using the session.) The desktop application is one
+ * session; the command line and batch modes create one session per file.
+ */
+public class Session {
+
+    // the command methods of Symphonia, by command name (never changed after class initialization)
+    private static final Map<String, Method> commands = new HashMap<>();
+
+    static {
+        for (Method m : Symphonia.class.getDeclaredMethods()) {
+            if (!Modifier.isPrivate(m.getModifiers()) && !Modifier.isStatic(m.getModifiers())
+                    && m.getReturnType() == String.class
+                    && m.getParameterTypes().length == 1 && m.getParameterTypes()[0] == String.class) {
+                m.setAccessible(true);
+                commands.put(commandName(m), m);
+            }
+        }
+    }
+
+    // the most voices a tune can have (one per MIDI channel, apart from the percussion channel)
+    static final int maxVoices = 15;
+
+    public final List<Tune> voices = new ArrayList<>(); // voice 1 is voices.get(0)
+    public Tune tune; // the voice being edited
+
+    public double beat_duration;
+    public String current_dynamic;
+    public int current_program = 0;
+
+    boolean isAddmode = false;
+    boolean isAudition = false;
+
+    MidiRecorder recorder; // null unless recording
+    final ConcurrentLinkedQueue<Note[]> recorded = new ConcurrentLinkedQueue<>(); // notes recorded but not yet added
+
+    long maxNotes = Tune.maxNotes; // the most notes repeating and generating may leave in all the voices (lowered by RenderServer)
+
+    MelodyIndex library; // the library searched by the 'search' command (null until one is indexed)
+
+    // the player of the tune while it plays (else null); read by the event dispatch thread to show where playback is
+    volatile Player player;
+
+    private final Symphonia symphonia = new Symphonia(this);
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param beat_duration   the duration (in seconds) of one beat
+     * @param current_dynamic the dynamic to start with
+     */
+    public Session(double beat_duration, String current_dynamic) {
+        this.beat_duration = beat_duration;
+        this.current_dynamic = current_dynamic;
+        voices.add(new Tune());
+        tune = voices.get(0);
+    }
+
+    /**
+     * Switch to another voice, creating it (and any voices before it) if it
+     * does not exist yet.
+     *
+     * @param voice the number of the voice, from 1 to maxVoices
+     */
+    void selectVoice(int voice) {
+        while (voices.size() < voice) {
+            voices.add(new Tune());
+        }
+        tune = voices.get(voice - 1);
+    }
+
+    /**
+     * Get the number of the voice being edited.
+     *
+     * @return the number of the voice, from 1
+     */
+    public int voice() {
+        // compare by identity: voices with the same notes are equal lists
+        int v = 0;
+        while (voices.get(v) != tune) {
+            v++;
+        }
+        return v + 1;
+    }
+
+    /**
+     * Set the current dynamic.
+     *
+     * @param dynamic the value to set the current dynamic to
+     */
+    public void setDynamic(String dynamic) {
+        current_dynamic = dynamic;
+    }
+
+    /**
+     * Check whether add mode is on. In add mode, everything entered is treated
+     * as the arguments of an "add" command.
+     *
+     * @return true if add mode is on
+     */
+    public boolean isAddmode() {
+        return isAddmode;
+    }
+
+    /**
+     * Check whether audition is on. While audition is on, notes are played as
+     * soon as they are added.
+     *
+     * @return true if audition is on
+     */
+    public boolean isAudition() {
+        return isAudition;
+    }
+
+    /**
+     * Play a newly added note, if audition is on. Returns at once.
+     *
+     * @param n the note that was added
+     */
+    void audition(Note n) {
+        if (isAudition) {
+            try {
+                Audition.get().play(n);
+            } catch (LineUnavailableException ex) {
+                // cannot happen: the engine was started when audition was switched on
+            }
+        }
+    }
+
+    /**
+     * Check whether notes are being recorded from a MIDI keyboard.
+     *
+     * @return true if recording is on
+     */
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
+    /**
+     * Add the notes recorded since the last call to the end of the tune.
+     * Commands do this before they run, so they always see the notes recorded
+     * so far; while recording, the application also calls it regularly, to
+     * show the notes as they are played.
+     *
+     * @return true if any notes were added
+     */
+    public boolean takeRecorded() {
+        Note[] batch;
+        boolean added = false;
+        while ((batch = recorded.poll()) != null) {
+            tune.replaceRange(tune.size(), tune.size(), batch);
+            added = true;
+        }
+        return added;
+    }
+
+    /**
+     * Get the name of the command in a command statement.
+     *
+     * @param input the command statement, as entered by the user
+     * @return the first word of the statement
+     */
+    static String commandName(String input) {
+        return (input.contains(" ")) ? input.substring(0, input.indexOf(" ")) : input;
+    }
+
+    // the name of the command a method implements: scaleDuration is "scale-duration"
+    private static String commandName(Method m) {
+        StringBuilder name = new StringBuilder();
+        for (char c : m.getName().toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                name.append('-').append(Character.toLowerCase(c));
+            } else {
+                name.append(c);
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Check whether there is a command with a given name.
+     *
+     * @param command the name of the command
+     * @return true if the command exists
+     */
+    static boolean isCommand(String command) {
+        return commands.containsKey(command);
+    }
+
+    /**
+     * Execute a command statement, exactly as entered by the user, in this
+     * session. "addmode on" and "addmode off" switch add mode on and off; in
+     * add mode, the statement is passed to the "add" command. Otherwise, the
+     * method of Symphonia named like the command is called.
+     *
+     * @param input the command statement
+     * @return the feedback to give to the user
+     */
+    public String execute(String input) {
+        Startup.command();
+        long start = Metrics.start();
+        boolean wasAddmode = isAddmode;
+        takeRecorded();
+        String feedback = dispatch(input);
+        if (Metrics.enabled) {
+            Metrics.record("command." + timerName(input, wasAddmode), start);
+        }
+        return feedback;
+    }
+
+    // the name of the timer a command statement is counted in (all unknown commands share one)
+    private static String timerName(String input, boolean addmode) {
+        if (input.equals("addmode on") || input.equals("addmode off")) {
+            return "addmode";
+        } else if (addmode) {
+            return "add";
+        }
+        String command = commandName(input);
+        return isCommand(command) ? command : "unknown";
+    }
+
+    private String dispatch(String input) {
+        if (input.equals("addmode on")) {
+            // turn add mode on (if it is not already on)
+            if (isAddmode) {
+                return "Already in add mode.\n";
+            }
+            isAddmode = true;
+            return "Switched to add mode.\n";
+        } else if (input.equals("addmode off")) {
+            // turn add mode off (if it is not already off)
+            if (!isAddmode) {
+                return "Add mode is already off.\n";
+            }
+            isAddmode = false;
+            return "Add mode is now off.\n";
+        } else if (isAddmode) {
+            String returnVal = invoke(commands.get("add"), "add " + input);
+            if (returnVal.contains(Symphonia.usage_add)) {
+                // invalid input
+                returnVal += "Note that you are in add mode. Exit add mode to use commands other than \"add\"\n";
+            }
+            return returnVal;
+        } else {
+            // search and execute appropriate method
+            Method m = commands.get(commandName(input));
+            if (m == null) {
+                return "No such command (yet).\n";
+            }
+            return invoke(m, input);
+        }
+    }
+
+    private String invoke(Method m, String input) {
+        try {
+            return (String) m.invoke(symphonia, input);
+        } catch (IllegalAccessException | IllegalArgumentException ex) {
+            throw new IllegalStateException(ex);
+        } catch (InvocationTargetException ex) {
+            return "Error: " + ex.getCause() + "\n";
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package symphonia;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures how long Symphonia takes to start: the time from the start of the
+ * JVM to the first command executed and to the first note played.
+ *
+ * The times are recorded as the "startup.command" and "startup.sound" timers
+ * when metrics are on (see Metrics), and printed on standard error when
+ * Symphonia is started with -Dsymphonia.startup.report=true.
+ */
+final class Startup {
+
+    private static final boolean report = Boolean.getBoolean("symphonia.startup.report");
+
+    private static final AtomicBoolean commandSeen = new AtomicBoolean();
+    private static final AtomicBoolean soundSeen = new AtomicBoolean();
+
+    private Startup() {
+    }
+
+    /**
+     * Note that a command is about to be executed.
+     */
+    static void command() {
+        if ((report || Metrics.enabled) && commandSeen.compareAndSet(false, true)) {
+            record("startup.command", "first command");
+        }
+    }
+
+    /**
+     * Note that a note has just started sounding.
+     */
+    static void sound() {
+        if ((report || Metrics.enabled) && soundSeen.compareAndSet(false, true)) {
+            record("startup.sound", "first sound");
+        }
+    }
+
+    private static void record(String timer, String event) {
+        long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        Metrics.recordNanos(timer, millis * 1000000);
+        if (report) {
+            System.err.println("Startup: " + event + " after " + millis + " ms");
+        }
+    }
+}
@@ -0,0 +1,512 @@
+package symphonia;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A Graphics2D that writes what is drawn on it as an SVG document.
+ *
+ * Only what is needed to draw scores is supported: shapes are written as paths
+ * (with the current transform, color and stroke width applied) and text as
+ * text elements. Images, composites and clipping are not written to the
+ * document; the clip is only kept track of so that the code drawing on the
+ * graphics can skip what lies outside it.
+ *
+ * Call finish once drawing is complete to close the document.
+ */
+class SvgGraphics extends Graphics2D {
+
+    private final StringBuilder out;
+
+    // a small image used only to measure text, which works even when running headless
+    private final Graphics2D measure;
+
+    private AffineTransform transform = new AffineTransform();
+    private Shape clip; // in user space; null if there is no clip
+    private Color color = Color.BLACK;
+    private Color background = Color.WHITE;
+    private Stroke stroke = new BasicStroke(1);
+    private Font font = new Font(Font.SERIF, Font.PLAIN, 12);
+
+    /**
+     * Parameterized constructor. Starts a new SVG document.
+     *
+     * @param out    the buffer to write the document to
+     * @param width  the width of the document
+     * @param height the height of the document
+     */
+    SvgGraphics(StringBuilder out, int width, int height) {
+        this.out = out;
+        this.measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).createGraphics();
+        out.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        out.append("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"").append(width).append("\" height=\"").append(height)
+                .append("\" viewBox=\"0 0 ").append(width).append(' ').append(height).append("\">\n");
+    }
+
+    private SvgGraphics(SvgGraphics g) {
+        this.out = g.out;
+        this.measure = g.measure;
+        this.transform = new AffineTransform(g.transform);
+        this.clip = g.clip;
+        this.color = g.color;
+        this.background = g.background;
+        this.stroke = g.stroke;
+        this.font = g.font;
+    }
+
+    /**
+     * Close the SVG document. Nothing may be drawn afterwards.
+     */
+    void finish() {
+        out.append("</svg>\n");
+    }
+
+    private void writePath(Shape s, boolean filled) {
+        PathIterator it = s.getPathIterator(transform);
+        double[] c = new double[6];
+        out.append("<path d=\"");
+        while (!it.isDone()) {
+            switch (it.currentSegment(c)) {
+                case PathIterator.SEG_MOVETO:
+                    out.append('M').append(num(c[0])).append(' ').append(num(c[1]));
+                    break;
+                case PathIterator.SEG_LINETO:
+                    out.append('L').append(num(c[0])).append(' ').append(num(c[1]));
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    out.append('Q').append(num(c[0])).append(' ').append(num(c[1])).append(' ').append(num(c[2])).append(' ').append(num(c[3]));
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    out.append('C').append(num(c[0])).append(' ').append(num(c[1])).append(' ').append(num(c[2])).append(' ')
+                            .append(num(c[3])).append(' ').append(num(c[4])).append(' ').append(num(c[5]));
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    out.append('Z');
+                    break;
+            }
+            it.next();
+        }
+        if (filled) {
+            out.append("\" fill=\"").append(hex(color)).append("\"/>\n");
+        } else {
+            float width = (stroke instanceof BasicStroke) ? ((BasicStroke) stroke).getLineWidth() : 1;
+            out.append("\" fill=\"none\" stroke=\"").append(hex(color)).append("\" stroke-width=\"")
+                    .append(num(width * Math.sqrt(Math.abs(transform.getDeterminant())))).append("\"/>\n");
+        }
+    }
+
+    private static String num(double d) {
+        // two decimal places are more than enough for a score
+        return String.format(Locale.ROOT, "%.2f", d);
+    }
+
+    private static String hex(Color c) {
+        return String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue());
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    @Override
+    public void draw(Shape s) {
+        writePath(s, false);
+    }
+
+    @Override
+    public void fill(Shape s) {
+        writePath(s, true);
+    }
+
+    @Override
+    public void drawString(String str, float x, float y) {
+        Point2D p = transform.transform(new Point2D.Double(x, y), null);
+        out.append("<text x=\"").append(num(p.getX())).append("\" y=\"").append(num(p.getY()))
+                .append("\" font-family=\"").append(escape(font.getFamily())).append("\" font-size=\"").append(font.getSize2D())
+                .append("\" fill=\"").append(hex(color)).append("\">").append(escape(str)).append("</text>\n");
+    }
+
+    @Override
+    public void drawString(String str, int x, int y) {
+        drawString(str, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+        drawString(iterator, (float) x, (float) y);
+    }
+
+    @Override
+    public void drawString(AttributedCharacterIterator iterator, float x, float y) {
+        StringBuilder text = new StringBuilder();
+        for (char c = iterator.first(); c != AttributedCharacterIterator.DONE; c = iterator.next()) {
+            text.append(c);
+        }
+        drawString(text.toString(), x, y);
+    }
+
+    @Override
+    public void drawGlyphVector(GlyphVector g, float x, float y) {
+        fill(g.getOutline(x, y));
+    }
+
+    @Override
+    public boolean drawImage(Image img, AffineTransform xform, ImageObserver obs) {
+        return false;
+    }
+
+    @Override
+    public void drawImage(BufferedImage img, BufferedImageOp op, int x, int y) {
+    }
+
+    @Override
+    public void drawRenderedImage(RenderedImage img, AffineTransform xform) {
+    }
+
+    @Override
+    public void drawRenderableImage(RenderableImage img, AffineTransform xform) {
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+        return false;
+    }
+
+    @Override
+    public boolean hit(Rectangle rect, Shape s, boolean onStroke) {
+        Shape shape = onStroke ? stroke.createStrokedShape(s) : s;
+        return transform.createTransformedShape(shape).intersects(rect);
+    }
+
+    @Override
+    public GraphicsConfiguration getDeviceConfiguration() {
+        return measure.getDeviceConfiguration();
+    }
+
+    @Override
+    public void setComposite(Composite comp) {
+    }
+
+    @Override
+    public Composite getComposite() {
+        return AlphaComposite.SrcOver;
+    }
+
+    @Override
+    public void setPaint(Paint paint) {
+        if (paint instanceof Color) {
+            color = (Color) paint;
+        }
+    }
+
+    @Override
+    public Paint getPaint() {
+        return color;
+    }
+
+    @Override
+    public void setStroke(Stroke s) {
+        stroke = s;
+    }
+
+    @Override
+    public Stroke getStroke() {
+        return stroke;
+    }
+
+    @Override
+    public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
+        measure.setRenderingHint(hintKey, hintValue);
+    }
+
+    @Override
+    public Object getRenderingHint(RenderingHints.Key hintKey) {
+        return measure.getRenderingHint(hintKey);
+    }
+
+    @Override
+    public void setRenderingHints(Map<?, ?> hints) {
+        measure.setRenderingHints(hints);
+    }
+
+    @Override
+    public void addRenderingHints(Map<?, ?> hints) {
+        measure.addRenderingHints(hints);
+    }
+
+    @Override
+    public RenderingHints getRenderingHints() {
+        return measure.getRenderingHints();
+    }
+
+    @Override
+    public void translate(int x, int y) {
+        translate((double) x, (double) y);
+    }
+
+    @Override
+    public void translate(double tx, double ty) {
+        transform(AffineTransform.getTranslateInstance(tx, ty));
+    }
+
+    @Override
+    public void rotate(double theta) {
+        transform(AffineTransform.getRotateInstance(theta));
+    }
+
+    @Override
+    public void rotate(double theta, double x, double y) {
+        transform(AffineTransform.getRotateInstance(theta, x, y));
+    }
+
+    @Override
+    public void scale(double sx, double sy) {
+        transform(AffineTransform.getScaleInstance(sx, sy));
+    }
+
+    @Override
+    public void shear(double shx, double shy) {
+        transform(AffineTransform.getShearInstance(shx, shy));
+    }
+
+    @Override
+    public void transform(AffineTransform tx) {
+        // keep the clip where it is on the page
+        if (clip != null) {
+            try {
+                clip = tx.createInverse().createTransformedShape(clip);
+            } catch (NoninvertibleTransformException ex) {
+                clip = new Rectangle();
+            }
+        }
+        transform.concatenate(tx);
+    }
+
+    @Override
+    public void setTransform(AffineTransform tx) {
+        // keep the clip where it is on the page
+        Shape deviceClip = (clip == null) ? null : transform.createTransformedShape(clip);
+        transform = new AffineTransform(tx);
+        if (deviceClip != null) {
+            try {
+                clip = transform.createInverse().createTransformedShape(deviceClip);
+            } catch (NoninvertibleTransformException ex) {
+                clip = new Rectangle();
+            }
+        }
+    }
+
+    @Override
+    public AffineTransform getTransform() {
+        return new AffineTransform(transform);
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        background = color;
+    }
+
+    @Override
+    public Color getBackground() {
+        return background;
+    }
+
+    @Override
+    public void clip(Shape s) {
+        if (s == null) {
+            clip = null;
+        } else if (clip == null) {
+            clip = s;
+        } else {
+            Area a = new Area(clip);
+            a.intersect(new Area(s));
+            clip = a;
+        }
+    }
+
+    @Override
+    public FontRenderContext getFontRenderContext() {
+        return measure.getFontRenderContext();
+    }
+
+    @Override
+    public Graphics create() {
+        return new SvgGraphics(this);
+    }
+
+    @Override
+    public Color getColor() {
+        return color;
+    }
+
+    @Override
+    public void setColor(Color c) {
+        if (c != null) {
+            color = c;
+        }
+    }
+
+    @Override
+    public void setPaintMode() {
+    }
+
+    @Override
+    public void setXORMode(Color c1) {
+    }
+
+    @Override
+    public Font getFont() {
+        return font;
+    }
+
+    @Override
+    public void setFont(Font font) {
+        if (font != null) {
+            this.font = font;
+        }
+    }
+
+    @Override
+    public FontMetrics getFontMetrics(Font f) {
+        return measure.getFontMetrics(f);
+    }
+
+    @Override
+    public Rectangle getClipBounds() {
+        return (clip == null) ? null : clip.getBounds();
+    }
+
+    @Override
+    public void clipRect(int x, int y, int width, int height) {
+        clip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void setClip(int x, int y, int width, int height) {
+        setClip(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public Shape getClip() {
+        return clip;
+    }
+
+    @Override
+    public void setClip(Shape clip) {
+        this.clip = clip;
+    }
+
+    @Override
+    public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+    }
+
+    @Override
+    public void drawLine(int x1, int y1, int x2, int y2) {
+        draw(new Line2D.Double(x1, y1, x2, y2));
+    }
+
+    @Override
+    public void fillRect(int x, int y, int width, int height) {
+        fill(new Rectangle(x, y, width, height));
+    }
+
+    @Override
+    public void clearRect(int x, int y, int width, int height) {
+        Color c = color;
+        color = background;
+        fillRect(x, y, width, height);
+        color = c;
+    }
+
+    @Override
+    public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        draw(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+        fill(new RoundRectangle2D.Double(x, y, width, height, arcWidth, arcHeight));
+    }
+
+    @Override
+    public void drawOval(int x, int y, int width, int height) {
+        draw(new Ellipse2D.Double(x, y, width, height));
+    }
+
+    @Override
+    public void fillOval(int x, int y, int width, int height) {
+        fill(new Ellipse2D.Double(x, y, width, height));
+    }
+
+    @Override
+    public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        draw(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.OPEN));
+    }
+
+    @Override
+    public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+        fill(new Arc2D.Double(x, y, width, height, startAngle, arcAngle, Arc2D.PIE));
+    }
+
+    @Override
+    public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
+        Path2D.Double p = new Path2D.Double();
+        for (int i = 0; i < nPoints; i++) {
+            if (i == 0) {
+                p.moveTo(xPoints[i], yPoints[i]);
+            } else {
+                p.lineTo(xPoints[i], yPoints[i]);
+            }
+        }
+        draw(p);
+    }
+
+    @Override
+    public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        draw(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
+        fill(new Polygon(xPoints, yPoints, nPoints));
+    }
+
+    @Override
+    public void dispose() {
+    }
+}
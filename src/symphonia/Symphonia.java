@@ -1,13 +1,19 @@
 package symphonia;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.sound.midi.Instrument;
 import javax.sound.midi.MidiChannel;
 import javax.sound.midi.MidiSystem;
 import javax.sound.midi.MidiUnavailableException;
-import javax.sound.midi.Synthesizer;
+import javax.sound.midi.Transmitter;
+import javax.sound.sampled.LineUnavailableException;
 
 /**
  * Class containing implementations of valid commands in Symphonia.
@@ -15,10 +21,13 @@ import javax.sound.midi.Synthesizer;
  * All command implementations must be public methods, returning a String (the
  * feedback given to the user), and taking a single String parameter (the full
  * command statement as entered by the user). The name of the method must
- * exactly match the name of the command as entered by the user.
+ * exactly match the name of the command as entered by the user, except that
+ * commands with hyphens are written in camel case (the 'scale-duration'
+ * command is the scaleDuration method).
  * 
  * Methods in this class are searched for using reflection, and are called when
- * the user enters the corresponding command.
+ * the user enters the corresponding command. Each Symphonia object belongs to
+ * a Session, and its commands work on the tune and settings of that session.
  */
 public class Symphonia {
 
@@ -26,8 +35,62 @@ public class Symphonia {
     public static final String usage_add = "Usage: add <note name> <duration> [+/-<octave change>] [<dynamic marking>]";
     private final String usage_remove = "Usage: remove <index>|last|all";
     private final String usage_print = "Usage: print <index>|tune";
+    private final String usage_generate = "Usage: generate <number of notes> [uniform|typical|worst] [<seed>]";
+    private final String usage_transpose = "Usage: transpose <from index> <to index>|last +/-<semitones>";
+    private final String usage_dynamic = "Usage: dynamic <from index> <to index>|last <dynamic marking>";
+    private final String usage_duration = "Usage: duration <from index> <to index>|last <duration>";
+    private final String usage_scale_duration = "Usage: scale-duration <from index> <to index>|last <factor>";
+    private final String usage_repeat = "Usage: repeat <from index> <to index>|last <times>";
+    private final String usage_copy = "Usage: copy <from index> <to index>|last <index to copy to>|end";
+    private final String usage_reload = "Usage: reload <command file>";
+    private final String usage_audition = "Usage: audition on|off";
+    private final String usage_record = "Usage: record on|off";
+    private final String usage_index = "Usage: index <directory of command files>";
+    private final String usage_search = "Usage: search <note name>[+/-<octave change>] <note name>[+/-<octave change>]...";
+    private final String usage_chord = "Usage: chord <note name>[+/-<octave change>] <note name>[+/-<octave change>]... <duration> [<dynamic marking>]";
+    private final String usage_voice = "Usage: voice <number (1-" + Session.maxVoices + ")>";
+    private final String usage_instrument = "Usage: instrument [<from index> <to index>|last] <program (0-127)>";
     private final String usage_replace = "Usage: replace <index>|last <note name> <duration> [+/-<octave change>] [<dynamic marking>]";
 
+    // the syntax of each command (compiled once, rather than every time a command is run); numbers have at
+    // most 9 digits (18 for generate, which parses longs), so that they always parse, and are then checked
+    // against the range each command allows
+    private static final Pattern pattern_add = Pattern.compile("add ([A-G][#b]*) (\\d+[.]?\\d*)\\s?([-+][0-9]{1,9})?\\s?(p+|f+|m[pf])?");
+    private static final Pattern pattern_chord = Pattern.compile("chord ((?:[A-G][#b]*(?:[-+][0-9]{1,9})? ){2,})(\\d+[.]?\\d*)\\s?(p+|f+|m[pf])?");
+    private static final Pattern pattern_voice = Pattern.compile("voice ([0-9]{1,9})");
+    private static final Pattern pattern_remove = Pattern.compile("remove ([0-9]{1,9}|last|all)");
+    private static final Pattern pattern_replace = Pattern.compile("replace ([0-9]{1,9}|last) ([A-G][#b]*) (\\d+[.]?\\d*)\\s?([-+]\\d)?\\s?(p+|f+|m[pf])?");
+    private static final Pattern pattern_print = Pattern.compile("print ([0-9]{1,9}|tune)");
+    private static final Pattern pattern_generate = Pattern.compile("generate ([0-9]{1,18})\\s?(uniform|typical|worst)?(?:\\s([0-9]{1,18}))?");
+    private static final Pattern pattern_transpose = Pattern.compile("transpose ([0-9]{1,9}) ([0-9]{1,9}|last) ([-+]?[0-9]{1,9})");
+    private static final Pattern pattern_dynamic = Pattern.compile("dynamic ([0-9]{1,9}) ([0-9]{1,9}|last) (\\S+)");
+    private static final Pattern pattern_duration = Pattern.compile("duration ([0-9]{1,9}) ([0-9]{1,9}|last) (\\d+[.]?\\d*)");
+    private static final Pattern pattern_instrument = Pattern.compile("instrument (?:([0-9]{1,9}) ([0-9]{1,9}|last) )?([0-9]{1,9})");
+    private static final Pattern pattern_scale_duration = Pattern.compile("scale-duration ([0-9]{1,9}) ([0-9]{1,9}|last) ([0-9]*[.]?[0-9]+)");
+    private static final Pattern pattern_repeat = Pattern.compile("repeat ([0-9]{1,9}) ([0-9]{1,9}|last) ([0-9]{1,9})");
+    private static final Pattern pattern_copy = Pattern.compile("copy ([0-9]{1,9}) ([0-9]{1,9}|last) ([0-9]{1,9}|end)");
+    private static final Pattern pattern_reload = Pattern.compile("reload (.+)");
+    private static final Pattern pattern_index = Pattern.compile("index (.+)");
+    private static final Pattern pattern_search = Pattern.compile("search ((?:[A-G][#b]*(?:[-+][0-9]{1,9})?\\s*)+)");
+
+    // the most places the 'search' command lists
+    private static final int maxSearchResults = 20;
+
+    // the start of the feedback of a command that would make the tune too long
+    static final String tooManyNotes = "Too many notes.";
+
+    // the session whose tune the commands work on
+    private final Session session;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param session the session to run commands in
+     */
+    Symphonia(Session session) {
+        this.session = session;
+    }
+
     /**
      * The implementation of the 'add' command. This method represents the 'add'
      * command, used to add new notes to the tune.
@@ -45,8 +108,7 @@ public class Symphonia {
      */
     String add(String cmdStatement) {
         // parse regex
-        Pattern p = Pattern.compile("add ([A-G][#b]*) (\\d[.]*\\d*)\\s?([-+][0-9]+)?\\s?(p+|f+|m[pf])?");
-        Matcher m = p.matcher(cmdStatement);
+        Matcher m = pattern_add.matcher(cmdStatement);
         if (!m.matches()) {
             return "Invalid command.\n" + usage_add + "\n";
         }
@@ -55,7 +117,7 @@ public class Symphonia {
         if (nonNullGroupCount(m) < 2 || nonNullGroupCount(m) > 4) {
             return "Invalid command.\n" + usage_add + "\n";
         } else {
-            if (!Note.noteToMidiNum.containsKey(m.group(1).replaceAll("#", "").replaceAll("b", ""))) {
+            if (!Note.noteToMidiNum.containsKey(m.group(1).substring(0, 1))) {
                 return "Invalid note name.\n";
             }
             
@@ -73,21 +135,104 @@ public class Symphonia {
                 
                 if (m.group(4) != null) {
                     if (Note.dynamicToVelocity.containsKey(m.group(4))) {
-                        Main.setDynamic(m.group(4));
+                        session.setDynamic(m.group(4));
                     } else {
                         return "Invalid dynamic.\n";
                     }
                 }
 
-                Note n = new Note(m.group(1), Double.parseDouble(m.group(2)), deltaOctave, Main.current_dynamic);
-                Main.tune.add(n);
-                return "Added note: " + n.getName() + "\n"; // return feedback
+                Note n = new Note(m.group(1), Double.parseDouble(m.group(2)), deltaOctave, session.current_dynamic, session.current_program);
+                session.tune.add(n);
+                session.audition(n);
+                return n.appendName(new StringBuilder(80).append("Added note: ")).append('\n').toString(); // return feedback
+            } else {
+                Note n = new Note(m.group(1), Double.parseDouble(m.group(2)), 0, session.current_dynamic, session.current_program);
+                session.tune.add(n);
+                session.audition(n);
+                return n.appendName(new StringBuilder(80).append("Added note: ")).append('\n').toString();
+            }
+        }
+    }
+
+    /**
+     * The implementation of the 'chord' command. This method represents the
+     * 'chord' command, used to add several notes that are played at the same
+     * time.
+     *
+     * In the command statement, the user must specify the names of at least
+     * two notes (each followed by its octave change, if any), then the
+     * duration of the chord. The user may also specify the dynamic marking of
+     * the chord, as for the 'add' command. The chord counts as one note of the
+     * tune: it is removed, replaced or printed with a single index.
+     *
+     * Examples (as entered by the user):
+     * chord C E G 2 -- adds a C major chord lasting 2 beats
+     * chord A C+1 E+1 1 mp -- adds an A minor chord, mezzo piano
+     */
+    String chord(String cmdStatement) {
+        Matcher m = pattern_chord.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_chord + "\n";
+        }
+
+        String[] pitches = m.group(1).trim().split(" ");
+        String[] names = new String[pitches.length];
+        int[] deltaOctaves = new int[pitches.length];
+        for (int i = 0; i < pitches.length; i++) {
+            int sign = Math.max(pitches[i].indexOf('+'), pitches[i].indexOf('-'));
+            names[i] = (sign < 0) ? pitches[i] : pitches[i].substring(0, sign);
+            deltaOctaves[i] = (sign < 0) ? 0 : Integer.parseInt(pitches[i].substring(sign));
+            if (!Note.noteToMidiNum.containsKey(names[i].substring(0, 1))) {
+                return "Invalid note name: " + names[i] + "\n";
+            }
+            if (deltaOctaves[i] > 2) {
+                return "Note " + pitches[i] + " is too high. Maximum +2 octave change is allowed.\n";
+            } else if (deltaOctaves[i] < -2) {
+                return "Note " + pitches[i] + " is too low. Maximum -2 octave lowering is allowed.\n";
+            }
+        }
+        if (!isAllowedDuration(m.group(2))) {
+            return "Invalid duration.\n";
+        }
+        if (m.group(3) != null) {
+            if (Note.dynamicToVelocity.containsKey(m.group(3))) {
+                session.setDynamic(m.group(3));
             } else {
-                Note n = new Note(m.group(1), Double.parseDouble(m.group(2)), 0, Main.current_dynamic);
-                Main.tune.add(n);
-                return "Added note: " + n.getName() + "\n";
+                return "Invalid dynamic.\n";
             }
         }
+
+        Note n = Note.chord(names, deltaOctaves, Double.parseDouble(m.group(2)), session.current_dynamic, session.current_program);
+        session.tune.add(n);
+        session.audition(n);
+        return "Added chord: " + n.getName() + "\n";
+    }
+
+    /**
+     * The implementation of the 'voice' command. This method represents the
+     * 'voice' command, used to choose the voice to edit.
+     *
+     * A tune has up to 15 voices, numbered from 1, which are all played at
+     * the same time, each from the start of the tune. Every command that works
+     * on notes (adding, removing, printing, transposing and so on) works on the
+     * voice chosen last; the score shows that voice. Every tune starts with
+     * voice 1.
+     *
+     * Examples (as entered by the user):
+     * voice 2 -- edits a second voice, to be played along with the first
+     * voice 1 -- goes back to the first voice
+     */
+    String voice(String cmdStatement) {
+        Matcher m = pattern_voice.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_voice + "\n";
+        }
+        int voice = Integer.parseInt(m.group(1));
+        if (voice < 1 || voice > Session.maxVoices) {
+            return "Invalid voice. Voices are numbered 1 to " + Session.maxVoices + ".\n";
+        }
+        session.selectVoice(voice);
+        return "Editing voice " + voice + " (" + session.tune.size() + " notes).\n";
     }
 
     /**
@@ -107,27 +252,25 @@ public class Symphonia {
      */
     String remove(String cmdStatement) {
         // parse regex
-        Pattern p = Pattern.compile("remove ([0-9]+|last|all)");
-        Matcher m = p.matcher(cmdStatement);
+        Matcher m = pattern_remove.matcher(cmdStatement);
         if (!m.matches()) {
             return usage_remove + "\n";
         }
         
         // use parsed data to remove note(s)
-        if (Main.tune.isEmpty()) {
+        if (session.tune.isEmpty()) {
             return "Tune is empty.\n";
         } else if (m.group(1).equals("all")) {
-            Main.tune.clear();
+            session.tune.clear();
             return "Cleared tune.\n";
         } else {
             
-            int index = (m.group(1).equals("last")) ? Main.tune.size() - 1 : Integer.parseInt(m.group(1));
-            if (index < 0 || index >= Main.tune.size()) {
+            int index = (m.group(1).equals("last")) ? session.tune.size() - 1 : Integer.parseInt(m.group(1));
+            if (index < 0 || index >= session.tune.size()) {
                 return "Index out of bounds.";
             }
-            String removed = Main.tune.get(index).getName();
-            Main.tune.remove(index);
-            return "Removed note: " + removed + "\n";
+            Note removed = session.tune.remove(index);
+            return removed.appendName(new StringBuilder(80).append("Removed note: ")).append('\n').toString();
         }
     }
 
@@ -146,8 +289,7 @@ public class Symphonia {
      */
     String replace(String cmdStatement) {
         // parse regex
-        Pattern p = Pattern.compile("replace ([0-9]+|last) ([A-G][#b]*) (\\d[.]*\\d*)\\s?([-+]\\d)?\\s?(p+|f+|m[pf])?");
-        Matcher m = p.matcher(cmdStatement);
+        Matcher m = pattern_replace.matcher(cmdStatement);
         if (!m.matches()) {
             return "Invalid command.\n" + usage_replace + "\n";
         }
@@ -155,19 +297,19 @@ public class Symphonia {
         // use parsed data to perform the required replacement
         int index;
         if (m.group(1).equals("last")) {
-            index = Main.tune.size() - 1;
+            index = session.tune.size() - 1;
         } else {
             index = Integer.parseInt(m.group(1));
         }
-        if (index >= Main.tune.size() || index < 0) {
+        if (index >= session.tune.size() || index < 0) {
             return "Index out of bounds.\n";
         }
-        Note replaced = Main.tune.get(index);
+        Note replaced = session.tune.get(index);
 
         if (nonNullGroupCount(m) < 3 || nonNullGroupCount(m) > 5) {
             return "Invalid command.\n" + usage_replace + "\n";
         } else {
-            if (!Note.noteToMidiNum.containsKey(m.group(2).replaceAll("#", "").replaceAll("b", ""))) {
+            if (!Note.noteToMidiNum.containsKey(m.group(2).substring(0, 1))) {
                 return "Invalid note name.\n";
             }
             
@@ -188,49 +330,56 @@ public class Symphonia {
                     if (Note.dynamicToVelocity.containsKey(m.group(5))) {
                         dynamicToSet = m.group(5);
                         if (m.group(1).equals("last")) {
-                            Main.setDynamic(m.group(5));
+                            session.setDynamic(m.group(5));
                         }
                     } else {
                         return "Invalid dynamic.\n";
                     }
                 }
                 
-                Note n = new Note(m.group(2), Double.parseDouble(m.group(3)), deltaOctave, dynamicToSet);
-                Main.tune.set(index, n);
-                return "Replaced note: " + replaced.getName() + "  with  " + n.getName() + "\n"; // return feedback
+                Note n = new Note(m.group(2), Double.parseDouble(m.group(3)), deltaOctave, dynamicToSet, replaced.program);
+                session.tune.set(index, n);
+                return n.appendName(replaced.appendName(new StringBuilder(160).append("Replaced note: ")).append("  with  ")).append('\n').toString(); // return feedback
             } else {
-                if (!Note.noteToMidiNum.containsKey(m.group(2).replaceAll("#", "").replaceAll("b", ""))) {
+                if (!Note.noteToMidiNum.containsKey(m.group(2).substring(0, 1))) {
                     return "Invalid note name.\n";
                 }
                 if (!isAllowedDuration(m.group(3))) {
                     return "Invalid duration.\n";
                 }
                 
-                Note n = new Note(m.group(2), Double.parseDouble(m.group(3)), 0, replaced.dynamic_marking);
-                Main.tune.set(index, n);
-                return "Replaced note: " + replaced.getName() + "  with  " + n.getName() + "\n";
+                Note n = new Note(m.group(2), Double.parseDouble(m.group(3)), 0, replaced.dynamic_marking, replaced.program);
+                session.tune.set(index, n);
+                return n.appendName(replaced.appendName(new StringBuilder(160).append("Replaced note: ")).append("  with  ")).append('\n').toString();
             }
         }
     }
 
     /**
      * The implementation of the 'play' command. This method represents the
-     * 'play' command, which synthesizes a piano playing the whole tune using
-     * the Java MIDI framework. This command takes no arguments.
+     * 'play' command, which synthesizes the whole tune using the Java MIDI
+     * framework: all the voices at the same time, each note on its own
+     * instrument (see the 'instrument' command). This command takes no
+     * arguments.
      */
     String play(String cmdStatement) throws MidiUnavailableException {
         // initialize audio MIDI synthesis objects
-        Synthesizer synth;
-        synth = MidiSystem.getSynthesizer();
-        synth.open();
-        final MidiChannel[] mcs = synth.getChannels();
-        Instrument[] instrs = synth.getDefaultSoundbank().getInstruments();
-        synth.loadInstrument(instrs[0]);
+        long start = Metrics.start();
+        final MidiChannel[] mcs = MidiSynth.get().getChannels();
+        Metrics.record("play.open", start);
 
         // synthesize each note
-        if (!Main.tune.isEmpty()) {
-            for (Note n : Main.tune) {
-                n.play(mcs[0], Main.beat_duration);
+        if (Tune.totalSize(session.voices) > 0) {
+            // follow the voice shown on the score
+            Player player = new Player(mcs);
+            player.follow(session.voice() - 1);
+            session.player = player;
+            try {
+                if (!player.play(session.voices, session.beat_duration)) {
+                    return "Stopped.\n";
+                }
+            } finally {
+                session.player = null;
             }
             return "Done.\n";
         } else {
@@ -247,35 +396,520 @@ public class Symphonia {
      * note (starting from 0), or the word 'tune' to print out all notes.
      */
     String print(String cmdStatement) {
-        Pattern p = Pattern.compile("print ([0-9]+|tune)");
-        Matcher m = p.matcher(cmdStatement);
+        Matcher m = pattern_print.matcher(cmdStatement);
         if (!m.matches()) {
             return "\n" + usage_print;
         }
-        if (Main.tune.isEmpty()) {
+        if (session.tune.isEmpty()) {
             return "\nTune is empty.";
         } else {
             if (m.group(1).equals("tune")) {
-                String feedback = "\n";
-                for (int i = 0; i < Main.tune.size(); i++) {
-                    feedback += i + " -- " + Main.tune.get(i).getName() + "\n";
+                StringBuilder feedback = new StringBuilder("\n");
+                int i = 0;
+                for (Note n : session.tune) {
+                    feedback.append(i++).append(" -- ");
+                    n.appendName(feedback).append('\n');
                 }
-                return feedback + "\n";
+                return feedback.append('\n').toString();
             } else {
                 int index = Integer.parseInt(m.group(1));
-                if (index < 0 || index >= Main.tune.size()) {
+                if (index < 0 || index >= session.tune.size()) {
                     return "Index out of bounds.";
                 }
-                return "\n" + index + " -- " + Main.tune.get(index).getName() + "\n\n";
+                return "\n" + index + " -- " + session.tune.get(index).getName() + "\n\n";
             }
         }
     }
 
+    /**
+     * The implementation of the 'generate' command. This method represents the
+     * 'generate' command, used to add a number of random notes to the tune (to
+     * try out the application on large tunes).
+     *
+     * In the command statement, the user must specify the number of notes to
+     * add. Additionally, the user may also specify the profile of the notes
+     * (see TuneGenerator) and a seed, to get the same notes again.
+     *
+     * Examples (as entered by the user):
+     * generate 100 -- adds 100 random notes
+     * generate 100000 worst 7 -- adds 100000 notes that are as hard as possible to draw
+     */
+    String generate(String cmdStatement) {
+        Matcher m = pattern_generate.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_generate + "\n";
+        }
+
+        long count = Long.parseLong(m.group(1));
+        if (count > Tune.maxNotes) {
+            return tooManyNotes + " At most " + Tune.maxNotes + " notes can be generated at once.\n";
+        }
+        if (!fits(count)) {
+            return tooManyNotes + " A tune can have at most " + session.maxNotes + " notes.\n";
+        }
+        String profile = (m.group(2) != null) ? m.group(2) : "uniform";
+        long seed = (m.group(3) != null) ? Long.parseLong(m.group(3)) : System.nanoTime();
+        TuneGenerator.profile(profile, seed).addTo(session.tune, (int) count);
+        return "Generated " + count + " notes.\n";
+    }
+
+    /**
+     * The implementation of the 'transpose' command. This method represents
+     * the 'transpose' command, used to move a passage of the tune up or down by
+     * a number of semitones.
+     *
+     * In the command statement, the user must specify the indices of the first
+     * and last notes of the passage (the word 'last' may be used for the last
+     * note), followed by the number of semitones. If any note would go beyond
+     * the allowed octave changes, no note is changed.
+     *
+     * Examples (as entered by the user):
+     * transpose 0 last +2 -- moves the whole tune up a tone
+     * transpose 8 15 -12 -- moves notes 8 to 15 down an octave
+     */
+    String transpose(String cmdStatement) {
+        Matcher m = pattern_transpose.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_transpose + "\n";
+        }
+        int semitones = Integer.parseInt(m.group(3));
+        return transform("Transposed", m.group(1), m.group(2), RangeTransform.transpose(semitones), " by " + semitones + " semitones");
+    }
+
+    /**
+     * The implementation of the 'dynamic' command. This method represents the
+     * 'dynamic' command, used to change the dynamic of a passage of the tune.
+     *
+     * Examples (as entered by the user):
+     * dynamic 0 last mp -- makes the whole tune mezzo piano
+     * dynamic 4 9 ff -- makes notes 4 to 9 fortissimo
+     */
+    String dynamic(String cmdStatement) {
+        Matcher m = pattern_dynamic.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_dynamic + "\n";
+        }
+        if (!Note.dynamicToVelocity.containsKey(m.group(3))) {
+            return "Invalid dynamic.\n";
+        }
+        return transform("Changed the dynamic of", m.group(1), m.group(2), RangeTransform.dynamic(m.group(3)), " to " + m.group(3));
+    }
+
+    /**
+     * The implementation of the 'duration' command. This method represents the
+     * 'duration' command, used to change the duration of a passage of the
+     * tune.
+     *
+     * Examples (as entered by the user):
+     * duration 0 last 1 -- makes every note a crotchet
+     * duration 5 5 1.5 -- makes note 5 a dotted crotchet
+     */
+    String duration(String cmdStatement) {
+        Matcher m = pattern_duration.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_duration + "\n";
+        }
+        if (!isAllowedDuration(m.group(3))) {
+            return "Invalid duration.\n";
+        }
+        return transform("Changed the duration of", m.group(1), m.group(2), RangeTransform.duration(Double.parseDouble(m.group(3))), " to " + m.group(3));
+    }
+
+    /**
+     * The implementation of the 'instrument' command. This method represents
+     * the 'instrument' command, used to choose the instrument notes are played
+     * on, by its General MIDI program number (0 is the piano, 40 the violin,
+     * 73 the flute, and so on).
+     *
+     * With only a program number, the instrument is used for the notes added
+     * from then on (just like a dynamic given to the 'add' command). With the
+     * indices of the first and last notes of a passage, the notes of the
+     * passage are changed to the instrument.
+     *
+     * Examples (as entered by the user):
+     * instrument 40 -- plays the notes added from now on on a violin
+     * instrument 16 31 73 -- plays notes 16 to 31 on a flute
+     */
+    String instrument(String cmdStatement) {
+        Matcher m = pattern_instrument.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_instrument + "\n";
+        }
+        int program = Integer.parseInt(m.group(3));
+        if (program > 127) {
+            return "Invalid instrument. General MIDI programs are numbered 0 to 127.\n";
+        }
+        if (m.group(1) == null) {
+            session.current_program = program;
+            return "Notes added from now on will be played on instrument " + program + ".\n";
+        }
+        return transform("Changed the instrument of", m.group(1), m.group(2), RangeTransform.instrument(program), " to " + program);
+    }
+
+    /**
+     * The implementation of the 'scale-duration' command. This method
+     * represents the 'scale-duration' command, used to make a passage of the
+     * tune faster or slower by multiplying the duration of each note. If any
+     * note would not have an allowed duration, no note is changed.
+     *
+     * Examples (as entered by the user):
+     * scale-duration 0 last 2 -- doubles the duration of every note
+     * scale-duration 3 6 0.5 -- halves the durations of notes 3 to 6
+     */
+    String scaleDuration(String cmdStatement) {
+        Matcher m = pattern_scale_duration.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_scale_duration + "\n";
+        }
+        double factor = Double.parseDouble(m.group(3));
+        if (factor <= 0) {
+            return "Invalid factor. Please enter a positive number.\n";
+        }
+        return transform("Scaled the duration of", m.group(1), m.group(2), RangeTransform.scaleDuration(factor), " by " + m.group(3));
+    }
+
+    /**
+     * The implementation of the 'repeat' command. This method represents the
+     * 'repeat' command, used to play a passage of the tune several times in a
+     * row.
+     *
+     * In the command statement, the user must specify the indices of the first
+     * and last notes of the passage (the word 'last' may be used for the last
+     * note), followed by the number of times the passage is to be played in
+     * all. The repeats do not take up memory of their own until they are
+     * edited.
+     *
+     * Examples (as entered by the user):
+     * repeat 0 3 2 -- plays the first four notes twice
+     * repeat 16 last 100 -- plays everything from note 16 on a hundred times
+     */
+    String repeat(String cmdStatement) {
+        Matcher m = pattern_repeat.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_repeat + "\n";
+        }
+        if (session.tune.isEmpty()) {
+            return "Tune is empty.\n";
+        }
+        int from = Integer.parseInt(m.group(1));
+        int to = m.group(2).equals("last") ? session.tune.size() - 1 : Integer.parseInt(m.group(2));
+        if (to >= session.tune.size() || from > to) {
+            return "Index out of bounds.\n";
+        }
+        long times = Long.parseLong(m.group(3));
+        if (times < 1) {
+            return "Invalid number of times. A passage must be played at least once.\n";
+        }
+        // (times is bounded first, so that the number of notes cannot overflow)
+        if (times > Tune.maxNotes || (to - from + 1) * (times - 1) + session.tune.size() > Tune.maxNotes || !fits((to - from + 1) * (times - 1))) {
+            return tooManyNotes + " A tune can have at most " + Math.min(Tune.maxNotes, session.maxNotes) + " notes.\n";
+        }
+        session.tune.repeat(from, to, (int) times);
+        return "Repeated notes " + from + " to " + to + " (" + times + " times in all).\n";
+    }
+
+    /**
+     * The implementation of the 'copy' command. This method represents the
+     * 'copy' command, used to copy a passage of the tune to another place in
+     * the tune. The copy does not take up memory of its own until it is edited.
+     *
+     * Examples (as entered by the user):
+     * copy 0 7 end -- copies the first eight notes to the end of the tune
+     * copy 4 5 0 -- copies notes 4 and 5 to the start of the tune
+     */
+    String copy(String cmdStatement) {
+        Matcher m = pattern_copy.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_copy + "\n";
+        }
+        if (session.tune.isEmpty()) {
+            return "Tune is empty.\n";
+        }
+        int from = Integer.parseInt(m.group(1));
+        int to = m.group(2).equals("last") ? session.tune.size() - 1 : Integer.parseInt(m.group(2));
+        int at = m.group(3).equals("end") ? session.tune.size() : Integer.parseInt(m.group(3));
+        if (to >= session.tune.size() || from > to || at > session.tune.size()) {
+            return "Index out of bounds.\n";
+        }
+        if (session.tune.size() + (to - from + 1) > Tune.maxNotes || !fits(to - from + 1)) {
+            return tooManyNotes + " A tune can have at most " + Math.min(Tune.maxNotes, session.maxNotes) + " notes.\n";
+        }
+        session.tune.copy(from, to, at);
+        return "Copied notes " + from + " to " + to + " to index " + at + ".\n";
+    }
+
+    /**
+     * The implementation of the 'reload' command. This method represents the
+     * 'reload' command, used to make the tune match a command file again after
+     * the file has been edited.
+     *
+     * The commands in the file are run on an empty tune, and the result is
+     * compared with the current tune. Only the notes that differ are removed,
+     * inserted or replaced, so reloading a long tune after a small edit is
+     * quick, and only the changed part of the score is drawn again. A part
+     * that has changed in too many places to compare note by note is replaced
+     * whole, and the feedback says how many such parts there were.
+     *
+     * Examples (as entered by the user):
+     * reload /home/user/tune.txt -- updates the tune to match tune.txt
+     */
+    String reload(String cmdStatement) {
+        Matcher m = pattern_reload.matcher(cmdStatement);
+        if (!m.matches()) {
+            return usage_reload + "\n";
+        }
+
+        // run the file on a tune of its own
+        File f = new File(m.group(1));
+        Session reloaded = new Session(session.beat_duration, session.current_dynamic);
+        reloaded.current_program = session.current_program;
+        final StringBuilder feedback = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new FileReader(f))) {
+            boolean ok = CommandFile.run(in, reloaded, new Consumer<String>() {
+                public void accept(String text) {
+                    feedback.append(text);
+                }
+            });
+            if (!ok) {
+                return feedback + "Could not reload " + f.getName() + ". The tune was not changed.\n";
+            }
+        } catch (IOException ex) {
+            return "Cannot read " + f + ": " + ex.getMessage() + "\n";
+        }
+
+        // change only what differs, voice by voice (voices the file does not have are emptied)
+        int voice = session.voice();
+        session.selectVoice(reloaded.voices.size());
+        int removed = 0;
+        int inserted = 0;
+        int places = 0;
+        int whole = 0;
+        for (int v = 0; v < session.voices.size(); v++) {
+            Note[] notes = (v < reloaded.voices.size()) ? reloaded.voices.get(v).snapshot() : new Note[0];
+            List<TuneDiff.Hunk> hunks = TuneDiff.diff(session.voices.get(v).snapshot(), notes);
+            TuneDiff.apply(session.voices.get(v), hunks);
+            for (TuneDiff.Hunk h : hunks) {
+                removed += h.removed;
+                inserted += h.inserted.length;
+                if (h.whole) {
+                    whole++;
+                }
+            }
+            places += hunks.size();
+        }
+        session.selectVoice(voice);
+        session.setDynamic(reloaded.current_dynamic);
+        session.current_program = reloaded.current_program;
+        return "Reloaded " + f.getName() + ": " + removed + " notes removed and " + inserted + " inserted, in " + places + " places"
+                + ((whole > 0) ? " (" + whole + " of them differing in more than " + TuneDiff.maxEdits + " places, and replaced whole)" : "") + ".\n";
+    }
+
+    /**
+     * The implementation of the 'audition' command. This method represents the
+     * 'audition' command, used to hear each note as soon as it is added.
+     *
+     * While audition is on, every note added with the 'add' command (or in add
+     * mode) is played at once, without waiting for the rest of the tune. The
+     * first time audition is switched on, the sound of every note is prepared
+     * in advance, which takes a moment; after that, notes play instantly.
+     *
+     * Examples (as entered by the user):
+     * audition on -- starts playing notes as they are added
+     * audition off -- stops playing notes as they are added
+     */
+    String audition(String cmdStatement) {
+        if (cmdStatement.equals("audition on")) {
+            try {
+                Audition.get();
+            } catch (LineUnavailableException ex) {
+                return "Audition unavailable: " + ex.getMessage() + "\n";
+            }
+            session.isAudition = true;
+            return "Audition on.\n";
+        } else if (cmdStatement.equals("audition off")) {
+            session.isAudition = false;
+            return "Audition off.\n";
+        }
+        return usage_audition + "\n";
+    }
+
+    /**
+     * The implementation of the 'record' command. This method represents the
+     * 'record' command, used to add notes by playing them on a MIDI keyboard.
+     *
+     * While recording is on, every note played on the default MIDI input is
+     * added to the end of the tune, on the current instrument. Lengths are
+     * rounded to the nearest allowed duration (at the current beat duration),
+     * loudness to the nearest dynamic marking, and notes struck together
+     * become a chord. Recording off adds the last notes and tells how many
+     * were recorded.
+     *
+     * Examples (as entered by the user):
+     * record on -- starts recording from the MIDI keyboard
+     * record off -- stops recording
+     */
+    String record(String cmdStatement) {
+        if (cmdStatement.equals("record on")) {
+            if (session.recorder != null) {
+                return "Already recording.\n";
+            }
+            Transmitter in;
+            try {
+                in = MidiSystem.getTransmitter();
+            } catch (MidiUnavailableException ex) {
+                return "MIDI input unavailable: " + (ex.getMessage() != null ? ex.getMessage() : "no MIDI input device") + "\n";
+            }
+            session.recorder = new MidiRecorder(session.beat_duration, session.current_program, new Consumer<Note[]>() {
+                public void accept(Note[] batch) {
+                    session.recorded.offer(batch);
+                }
+            });
+            session.recorder.attach(in);
+            return "Recording from the MIDI keyboard.\n";
+        } else if (cmdStatement.equals("record off")) {
+            MidiRecorder recorder = session.recorder;
+            if (recorder == null) {
+                return "Not recording.\n";
+            }
+            session.recorder = null;
+            recorder.close();
+            session.takeRecorded();
+            String feedback = "Recorded " + recorder.recorded() + " notes.\n";
+            if (recorder.skipped() > 0) {
+                feedback += recorder.skipped() + " notes more than 2 octaves above or below the middle octave were skipped.\n";
+            }
+            if (recorder.lost() > 0) {
+                feedback += recorder.lost() + " MIDI events were lost.\n";
+            }
+            return feedback;
+        }
+        return usage_record + "\n";
+    }
+
+    /**
+     * The implementation of the 'index' command. This method represents the
+     * 'index' command, used to choose the library of tunes the 'search'
+     * command searches.
+     *
+     * The library is a directory of command files. The first time a directory
+     * is indexed, the melody of every file in it is read (on all processors at
+     * once) and the index is saved in the directory, so that it need not be
+     * built again; after that, only the files added or changed since are read.
+     *
+     * Examples (as entered by the user):
+     * index /home/user/tunes -- searches the command files in /home/user/tunes from now on
+     */
+    String index(String cmdStatement) {
+        Matcher m = pattern_index.matcher(cmdStatement);
+        if (!m.matches()) {
+            return usage_index + "\n";
+        }
+
+        long start = System.nanoTime();
+        try {
+            MelodyIndex library = MelodyIndex.open(new File(m.group(1)));
+            int[] changes = library.refresh();
+            session.library = library;
+            return "Indexed " + library.size() + " tunes (" + changes[0] + " read, " + changes[1] + " removed) in "
+                    + (System.nanoTime() - start) / 1000000 + " ms.\n";
+        } catch (IOException ex) {
+            return "Cannot index " + m.group(1) + ": " + ex.getMessage() + "\n";
+        }
+    }
+
+    /**
+     * The implementation of the 'search' command. This method represents the
+     * 'search' command, used to find the tunes of the library (see the 'index'
+     * command) in which a phrase occurs.
+     *
+     * In the command statement, the user must specify the names of at least
+     * four notes (each followed by its octave change, if any), as for the
+     * 'chord' command. The phrase is found in any key and in any voice, but
+     * only with the same notes in a row; durations and dynamics are not
+     * compared. Files of the library changed since the last search are indexed
+     * again first.
+     *
+     * Examples (as entered by the user):
+     * search C D E C -- finds the tunes that go up a tone, a tone, and down a major third
+     * search G E+1 D+1 C+1 -- finds the tunes with a sixth up followed by two steps down
+     */
+    String search(String cmdStatement) {
+        Matcher m = pattern_search.matcher(cmdStatement);
+        if (!m.matches()) {
+            return "Invalid command.\n" + usage_search + "\n";
+        }
+        if (session.library == null) {
+            return "No library to search.\n" + usage_index + "\n";
+        }
+
+        String[] pitches = m.group(1).trim().split("\\s+");
+        if (pitches.length < MelodyIndex.gramLength + 1) {
+            return "Search for at least " + (MelodyIndex.gramLength + 1) + " notes.\n";
+        }
+        int[] midiNums = new int[pitches.length];
+        for (int i = 0; i < pitches.length; i++) {
+            int sign = Math.max(pitches[i].indexOf('+'), pitches[i].indexOf('-'));
+            String name = (sign < 0) ? pitches[i] : pitches[i].substring(0, sign);
+            int deltaOctave = (sign < 0) ? 0 : Integer.parseInt(pitches[i].substring(sign));
+            if (!Note.noteToMidiNum.containsKey(name.substring(0, 1))) {
+                return "Invalid note name: " + name + "\n";
+            }
+            midiNums[i] = new Note(name, 1, deltaOctave, session.current_dynamic).midiNum;
+        }
+
+        long start = System.nanoTime();
+        List<MelodyIndex.Match> matches;
+        try {
+            session.library.refresh();
+            matches = session.library.search(midiNums);
+        } catch (IOException ex) {
+            return "Cannot search the library: " + ex.getMessage() + "\n";
+        }
+        long millis = (System.nanoTime() - start) / 1000000;
+        if (matches.isEmpty()) {
+            return "Not found (" + millis + " ms).\n";
+        }
+
+        // list the first few places
+        StringBuilder feedback = new StringBuilder();
+        feedback.append("Found in ").append(matches.size()).append(" places (").append(millis).append(" ms):\n");
+        for (int i = 0; i < Math.min(matches.size(), maxSearchResults); i++) {
+            MelodyIndex.Match match = matches.get(i);
+            feedback.append(match.file).append(", voice ").append(match.voice).append(", note ").append(match.note).append('\n');
+        }
+        if (matches.size() > maxSearchResults) {
+            feedback.append("... and ").append(matches.size() - maxSearchResults).append(" more.\n");
+        }
+        return feedback.toString();
+    }
+
+    private String transform(String done, String fromArg, String toArg, RangeTransform t, String how) {
+        // private helper function to apply a range transform between two indices given by the user
+        if (session.tune.isEmpty()) {
+            return "Tune is empty.\n";
+        }
+        int from = Integer.parseInt(fromArg);
+        int to = toArg.equals("last") ? session.tune.size() - 1 : Integer.parseInt(toArg);
+        if (to >= session.tune.size() || from > to) {
+            return "Index out of bounds.\n";
+        }
+        String failure = t.run(session.tune, from, to);
+        if (failure != null) {
+            return failure;
+        }
+        return done + " " + (to - from + 1) + " notes" + how + ".\n";
+    }
+
+    private boolean fits(long more) {
+        // private helper function to check that a number of notes more stay within the session's limit (over all voices)
+        return Tune.totalSize(session.voices) + more <= session.maxNotes;
+    }
+
     private int nonNullGroupCount(Matcher m) {
         // a private helper function to calculate the number of regex groups in a matcher that are not null
         int count = 0;
         for (int i = 1; i <= m.groupCount(); i++) {
-            if (m.group(i) != null) {
+            if (m.start(i) >= 0) { // rather than group(i), which copies the group
                 count++;
             }
         }
@@ -0,0 +1,210 @@
+package symphonia;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A small software synthesizer that renders tunes as PCM audio (16 bit, mono)
+ * without a sound card.
+ *
+ * The Java MIDI synthesizer can only play to an audio device, so tunes are
+ * rendered to WAV files with this synthesizer instead. Each note is a sum of a
+ * few harmonics with a short attack, an exponential decay and a short release,
+ * which sounds roughly like a plucked or struck string.
+ *
+ * The notes of a chord, and the voices of a tune, are added together.
+ *
+ * A synthesizer keeps a buffer that is reused from one note to the next, so it
+ * must only be used by one thread at a time.
+ */
+class ToneSynth {
+
+    static final int sampleRate = 44100;
+
+    // the relative amplitudes of the harmonics making up each note
+    private static final double[] harmonics = {1, 0.5, 0.25, 0.125};
+
+    private static final double attackSeconds = 0.005;
+    private static final double releaseSeconds = 0.01;
+    private static final double decayRate = 3; // per second
+
+    // the number of samples mixed at a time when rendering several voices
+    private static final int mixBlock = 4096;
+
+    private byte[] buffer = new byte[2 * sampleRate];
+
+    /**
+     * Calculate the number of samples a note lasts for.
+     *
+     * @param n             the note
+     * @param beat_duration the duration (in seconds) of one beat
+     * @return the number of samples
+     */
+    static int samples(Note n, double beat_duration) {
+        return (int) Math.round(n.duration * beat_duration * sampleRate);
+    }
+
+    /**
+     * Render one note as 16 bit little-endian samples.
+     *
+     * @param midiNum  the MIDI number of the note
+     * @param velocity the MIDI velocity of the note
+     * @param samples  the number of samples to render
+     * @return a buffer holding the samples in its first 2 * samples bytes; the
+     *         buffer is reused by the next call
+     */
+    byte[] render(int midiNum, int velocity, int samples) {
+        if (buffer.length < 2 * samples) {
+            buffer = new byte[2 * samples];
+        }
+
+        double freq = 440 * Math.pow(2, (midiNum - 69) / 12.0);
+        double amplitude = 0.3 * velocity / 127;
+        int attack = (int) (attackSeconds * sampleRate);
+        int release = (int) (releaseSeconds * sampleRate);
+
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / sampleRate;
+            double v = 0;
+            for (int h = 0; h < harmonics.length; h++) {
+                v += harmonics[h] * Math.sin(2 * Math.PI * freq * (h + 1) * t);
+            }
+
+            // shape the note so that it does not click at either end
+            double envelope = Math.exp(-decayRate * t);
+            if (i < attack) {
+                envelope *= (double) i / attack;
+            }
+            if (samples - i < release) {
+                envelope *= (double) (samples - i) / release;
+            }
+
+            short s = (short) (v * amplitude * envelope * Short.MAX_VALUE);
+            buffer[2 * i] = (byte) s;
+            buffer[2 * i + 1] = (byte) (s >> 8);
+        }
+        return buffer;
+    }
+
+    /**
+     * Render a whole tune as a WAV file. The voices are rendered note by note
+     * and mixed a block at a time, so the tune never has to fit in memory as
+     * audio.
+     *
+     * @param voices        the voices of the tune, each a list of notes
+     * @param beat_duration the duration (in seconds) of one beat
+     * @param out           the stream to write the WAV file to
+     * @throws IOException if the file cannot be written, or the tune is too
+     *                     long for a WAV file
+     */
+    void writeWav(List<? extends List<Note>> voices, double beat_duration, OutputStream out) throws IOException {
+        long start = Metrics.start();
+        long total = 0;
+        for (List<Note> voice : voices) {
+            long length = 0;
+            for (Note n : voice) {
+                length += samples(n, beat_duration);
+            }
+            total = Math.max(total, length);
+        }
+        long dataBytes = 2 * total;
+        if (dataBytes > 0xFFFFFFFFL - 36) {
+            throw new IOException("Tune is too long to be written as a WAV file.");
+        }
+
+        // write the RIFF header
+        out.write(new byte[]{'R', 'I', 'F', 'F'});
+        writeInt(out, (int) (36 + dataBytes));
+        out.write(new byte[]{'W', 'A', 'V', 'E', 'f', 'm', 't', ' '});
+        writeInt(out, 16); // size of the format chunk
+        writeShort(out, 1); // PCM
+        writeShort(out, 1); // mono
+        writeInt(out, sampleRate);
+        writeInt(out, sampleRate * 2); // bytes per second
+        writeShort(out, 2); // bytes per sample
+        writeShort(out, 16); // bits per sample
+        out.write(new byte[]{'d', 'a', 't', 'a'});
+        writeInt(out, (int) dataBytes);
+
+        // the note each voice is playing, rendered, and how much of it has been mixed
+        int count = voices.size();
+        List<Iterator<Note>> rest = new ArrayList<>(count);
+        int[][] rendered = new int[count][];
+        int[] length = new int[count];
+        int[] position = new int[count];
+        for (List<Note> voice : voices) {
+            rest.add(voice.iterator());
+        }
+
+        int[] mix = new int[mixBlock];
+        byte[] block = new byte[2 * mixBlock];
+        for (long done = 0; done < total; done += mixBlock) {
+            int size = (int) Math.min(mixBlock, total - done);
+            Arrays.fill(mix, 0, size, 0);
+            for (int v = 0; v < count; v++) {
+                int filled = 0;
+                while (filled < size) {
+                    if (position[v] == length[v]) {
+                        if (!rest.get(v).hasNext()) {
+                            break;
+                        }
+                        Note n = rest.get(v).next();
+                        length[v] = samples(n, beat_duration);
+                        position[v] = 0;
+                        rendered[v] = renderChord(n, length[v], rendered[v]);
+                        continue;
+                    }
+                    int part = Math.min(size - filled, length[v] - position[v]);
+                    for (int i = 0; i < part; i++) {
+                        mix[filled + i] += rendered[v][position[v] + i];
+                    }
+                    filled += part;
+                    position[v] += part;
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                int sample = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, mix[i]));
+                block[2 * i] = (byte) sample;
+                block[2 * i + 1] = (byte) (sample >> 8);
+            }
+            out.write(block, 0, 2 * size);
+        }
+        out.flush();
+        Metrics.record("export.wav", start, Tune.totalSize(voices));
+    }
+
+    // render a note and the rest of its chord, added together, into a buffer (a larger one if it is too small)
+    private int[] renderChord(Note n, int samples, int[] into) {
+        if (into == null || into.length < samples) {
+            into = new int[Math.max(samples, 2 * sampleRate)];
+        }
+        addSamples(render(n.midiNum, n.velocity, samples), samples, into, false);
+        for (Note c : n.chord) {
+            addSamples(render(c.midiNum, c.velocity, samples), samples, into, true);
+        }
+        return into;
+    }
+
+    private static void addSamples(byte[] pcm, int samples, int[] into, boolean add) {
+        for (int i = 0; i < samples; i++) {
+            int s = (pcm[2 * i] & 0xFF) | (pcm[2 * i + 1] << 8);
+            into[i] = add ? into[i] + s : s;
+        }
+    }
+
+    private static void writeInt(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >> 8);
+        out.write(v >> 16);
+        out.write(v >> 24);
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v);
+        out.write(v >> 8);
+    }
+}
@@ -0,0 +1,446 @@
+package symphonia;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The tune being edited: an ordered list of Notes.
+ *
+ * Apart from behaving like an ordinary list, a Tune keeps a version number that
+ * is increased on every change. Views that cache information computed from the
+ * tune (such as the layout of the score) compare version numbers to find out
+ * whether their cached information is out of date.
+ *
+ * Internally, the tune is a table of pieces. Each piece is a run of notes in a
+ * segment (an array that notes are only ever appended to), played one or more
+ * times in a row. Repeating or copying a passage adds pieces that share the
+ * segment of the passage instead of copying its notes, so a phrase of 64 notes
+ * repeated 1000 times takes about as much memory as the 64 notes. Since the
+ * notes in a segment are never changed, a shared passage is effectively copied
+ * only when one of its copies is edited, and then only the edited notes are
+ * new. Adding notes at the end of the tune is as fast as for an ArrayList.
+ *
+ * The pieces are kept in a balanced tree (a treap, in the order they are
+ * played), where each piece knows how many notes are under it. Finding the
+ * piece of a note, and cutting the tree where a note is edited and joining it
+ * again, take time proportional to the logarithm of the number of pieces, so
+ * editing a single note costs a few microseconds even when a long tune has
+ * been split into many pieces. The piece found last is remembered, so reading
+ * the notes one after the other does not search the tree for each of them.
+ */
+public class Tune extends AbstractList<Note> implements RandomAccess {
+
+    // the largest tune that repeating and generating notes may create
+    static final int maxNotes = 10000000;
+
+    // an array of notes that can only grow; slots are never changed once written
+    private static final class Segment {
+
+        Note[] notes;
+        int size;
+
+        Segment(int capacity) {
+            notes = new Note[Math.max(capacity, 16)];
+        }
+
+        void append(Note n) {
+            if (size == notes.length) {
+                notes = Arrays.copyOf(notes, 2 * size);
+            }
+            notes[size++] = n;
+        }
+    }
+
+    // the notes offset to offset + length - 1 of a segment, played a number of times in a row; also a node of the tree of pieces
+    private static final class Piece {
+
+        final Segment segment;
+        final int offset;
+        int length;
+        final int times;
+
+        // in the tree: a random priority, higher than that of the pieces below, and the pieces before and after
+        int priority;
+        Piece left;
+        Piece right;
+        int notes; // in this piece and the pieces below it
+        int count; // of this piece and the pieces below it
+        int start; // the index of the first note, when the piece was last found
+
+        Piece(Segment segment, int offset, int length, int times) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.times = times;
+        }
+
+        int size() {
+            return length * times;
+        }
+
+        Note get(int i) {
+            return segment.notes[offset + i % length];
+        }
+    }
+
+    private Piece root; // of the tree of pieces, or null if the tune is empty
+    private Piece recent; // the piece last found, or null
+    private int seed = 0x2545F491; // for the priorities of pieces
+    private Piece lower, upper; // the two trees left by cut()
+    private int size = 0;
+    private long version = 0;
+
+    @Override
+    public Note get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Piece p = pieceAt(index);
+        return p.get(index - p.start);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Note set(int index, Note n) {
+        Note old = get(index);
+        splice(index, index + 1, single(n));
+        version++;
+        return old;
+    }
+
+    @Override
+    public void add(int index, Note n) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Piece last = root;
+        while (last != null && last.right != null) {
+            last = last.right;
+        }
+        if (index == size && last != null && last.times == 1 && last.offset + last.length == last.segment.size) {
+            // the last piece ends at the end of its segment, so the note can simply be appended (and counted by the pieces above it)
+            last.segment.append(n);
+            last.length++;
+            for (Piece p = root; p != null; p = p.right) {
+                p.notes++;
+            }
+            size++;
+        } else {
+            splice(index, index, single(n));
+        }
+        version++;
+        modCount++;
+    }
+
+    @Override
+    public Note remove(int index) {
+        Note old = get(index);
+        splice(index, index + 1);
+        version++;
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        recent = null;
+        size = 0;
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Replace consecutive notes, all at once. This counts as a single change
+     * to the tune.
+     *
+     * @param from         the index of the first note to replace
+     * @param replacements the notes to put in place of the old ones
+     * @throws IndexOutOfBoundsException if the tune has fewer notes than are to be replaced
+     */
+    public void setRange(int from, Note[] replacements) {
+        replaceRange(from, from + replacements.length, replacements);
+    }
+
+    /**
+     * Replace the notes from one index to another with any number of notes,
+     * all at once. This counts as a single change to the tune.
+     *
+     * @param from         the index of the first note to replace
+     * @param to           the index after the last note to replace (equal to
+     *                     from to only insert notes)
+     * @param replacements the notes to put in place of the old ones
+     * @throws IndexOutOfBoundsException if the notes to replace are not in the tune
+     */
+    public void replaceRange(int from, int to, Note[] replacements) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Cannot replace notes " + from + " to " + to + " of " + size);
+        }
+        Segment s = new Segment(replacements.length);
+        for (Note n : replacements) {
+            s.append(n);
+        }
+        splice(from, to, new Piece(s, 0, replacements.length, 1));
+        version++;
+        if (to - from != replacements.length) {
+            modCount++;
+        }
+    }
+
+    /**
+     * Repeat a passage, so that it is played a number of times in a row. The
+     * repeats share the notes of the passage.
+     *
+     * @param from  the index of the first note of the passage
+     * @param to    the index of the last note of the passage
+     * @param times the number of times the passage is to be played (at least 1)
+     * @throws IndexOutOfBoundsException if the passage is not in the tune
+     * @throws IllegalArgumentException  if the tune would get longer than maxNotes
+     */
+    public void repeat(int from, int to, int times) {
+        checkPassage(from, to);
+        int length = to - from + 1;
+        if (times < 1 || (long) length * (times - 1) + size > maxNotes) {
+            throw new IllegalArgumentException("Cannot repeat " + length + " notes " + times + " times.");
+        }
+        Piece passage = passage(from, to);
+        splice(from, to + 1, new Piece(passage.segment, passage.offset, passage.length, times));
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Copy a passage to another place in the tune. The copy shares the notes
+     * of the passage.
+     *
+     * @param from the index of the first note of the passage
+     * @param to   the index of the last note of the passage
+     * @param at   the index the copy is to start at (the size of the tune to copy to the end)
+     * @throws IndexOutOfBoundsException if the passage or the index is not in the tune
+     * @throws IllegalArgumentException  if the tune would get longer than maxNotes
+     */
+    public void copy(int from, int to, int at) {
+        checkPassage(from, to);
+        if (at < 0 || at > size) {
+            throw new IndexOutOfBoundsException("Index: " + at + ", Size: " + size);
+        }
+        if ((long) size + (to - from + 1) > maxNotes) {
+            throw new IllegalArgumentException("Cannot copy " + (to - from + 1) + " notes.");
+        }
+        splice(at, at, passage(from, to));
+        version++;
+        modCount++;
+    }
+
+    /**
+     * Count the notes in all the voices of a tune.
+     *
+     * @param voices the voices, each a list of notes
+     * @return the total number of notes (a chord counting as one)
+     */
+    static long totalSize(List<? extends List<Note>> voices) {
+        long size = 0;
+        for (List<Note> voice : voices) {
+            size += voice.size();
+        }
+        return size;
+    }
+
+    /**
+     * Get the version of the tune. The version changes every time the tune is
+     * changed.
+     *
+     * @return the current version number
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Take a copy of the notes currently in the tune. Later changes to the tune
+     * do not affect the copy.
+     *
+     * @return an array containing the notes of the tune, in order
+     */
+    public Note[] snapshot() {
+        Note[] copy = new Note[size];
+        copy(root, copy, 0);
+        return copy;
+    }
+
+    // copy the notes of a tree of pieces to an array, returning the index after the last one
+    private static int copy(Piece p, Note[] to, int at) {
+        for (; p != null; p = p.right) {
+            at = copy(p.left, to, at);
+            for (int t = 0; t < p.times; t++) {
+                System.arraycopy(p.segment.notes, p.offset, to, at, p.length);
+                at += p.length;
+            }
+        }
+        return at;
+    }
+
+    private void checkPassage(int from, int to) {
+        if (from < 0 || to >= size || from > to) {
+            throw new IndexOutOfBoundsException("Passage: " + from + " to " + to + ", Size: " + size);
+        }
+    }
+
+    private static Piece single(Note n) {
+        Segment s = new Segment(1);
+        s.append(n);
+        return new Piece(s, 0, 1, 1);
+    }
+
+    // a piece (played once) containing the notes from one index to another
+    private Piece passage(int from, int to) {
+        Piece piece = pieceAt(from);
+        int inner = from - piece.start;
+        int start = inner % piece.length;
+        if (start + (to - from) < piece.length) {
+            // the passage lies within one run of a segment, which it can share
+            return new Piece(piece.segment, piece.offset + start, to - from + 1, 1);
+        }
+        Segment s = new Segment(to - from + 1);
+        for (int i = from; i <= to; i++) {
+            s.append(get(i));
+        }
+        return new Piece(s, 0, s.size, 1);
+    }
+
+    // the piece containing a note (whose first note is then at its start)
+    private Piece pieceAt(int index) {
+        Piece p = recent;
+        if (p != null && index >= p.start && index < p.start + p.size()) {
+            return p;
+        }
+        p = root;
+        int start = 0;
+        while (true) {
+            int before = notes(p.left);
+            if (index < start + before) {
+                p = p.left;
+            } else if (index < start + before + p.size()) {
+                p.start = start + before;
+                recent = p;
+                return p;
+            } else {
+                start += before + p.size();
+                p = p.right;
+            }
+        }
+    }
+
+    // replace the notes from one index (included) to another (excluded) with some pieces
+    private void splice(int from, int to, Piece... inserted) {
+        recent = null;
+        cut(root, to);
+        Piece after = upper;
+        cut(lower, from);
+        Piece before = lower;
+        Piece middle = null;
+        for (Piece p : inserted) {
+            if (p.size() > 0) {
+                middle = join(middle, node(p));
+            }
+        }
+        root = join(join(before, middle), after);
+        size = notes(root);
+
+        // once the pieces stop saving memory, put all the notes in a single segment again
+        if (root != null && root.count > 64 && root.count * 8L > size) {
+            Note[] notes = snapshot();
+            Segment s = new Segment(notes.length);
+            s.notes = notes;
+            s.size = notes.length;
+            root = node(new Piece(s, 0, notes.length, 1));
+        }
+    }
+
+    // cut a tree of pieces in two, the lower one holding its first k notes (splitting the piece the cut falls in)
+    private void cut(Piece p, int k) {
+        if (p == null) {
+            lower = null;
+            upper = null;
+            return;
+        }
+        int before = notes(p.left);
+        if (k <= before) {
+            cut(p.left, k);
+            p.left = upper;
+            update(p);
+            upper = p;
+        } else if (k >= before + p.size()) {
+            cut(p.right, k - before - p.size());
+            p.right = lower;
+            update(p);
+            lower = p;
+        } else {
+            // the piece becomes the pieces before the cut and those after it
+            int inner = k - before;
+            int repeat = inner / p.length;
+            int start = inner % p.length;
+            Piece head = null;
+            Piece tail = null;
+            if (repeat > 0) {
+                head = node(new Piece(p.segment, p.offset, p.length, repeat));
+            }
+            if (start > 0) {
+                head = join(head, node(new Piece(p.segment, p.offset, start, 1)));
+                tail = node(new Piece(p.segment, p.offset + start, p.length - start, 1));
+                repeat++;
+            }
+            if (p.times > repeat) {
+                tail = join(tail, node(new Piece(p.segment, p.offset, p.length, p.times - repeat)));
+            }
+            lower = join(p.left, head);
+            upper = join(tail, p.right);
+        }
+    }
+
+    // join two trees of pieces, the pieces of the first one coming before those of the second
+    private static Piece join(Piece a, Piece b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = join(a.right, b);
+            update(a);
+            return a;
+        }
+        b.left = join(a, b.left);
+        update(b);
+        return b;
+    }
+
+    // make a piece a tree of its own, with a random priority
+    private Piece node(Piece p) {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        p.priority = seed;
+        p.left = null;
+        p.right = null;
+        update(p);
+        return p;
+    }
+
+    // recount the notes and pieces under a piece, from those of the pieces just below it
+    private static void update(Piece p) {
+        p.notes = notes(p.left) + p.size() + notes(p.right);
+        p.count = 1 + (p.left == null ? 0 : p.left.count) + (p.right == null ? 0 : p.right.count);
+    }
+
+    private static int notes(Piece p) {
+        return p == null ? 0 : p.notes;
+    }
+}
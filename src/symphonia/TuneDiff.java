@@ -0,0 +1,340 @@
+package symphonia;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Works out how one tune differs from another, as a list of hunks: places
+ * where some notes of the old tune are to be removed and/or some new notes
+ * inserted. Applying the hunks to the old tune turns it into the new one.
+ *
+ * The notes the tunes start and end with in common are skipped first, so a
+ * small edit in a long tune is found in time proportional to the length of
+ * the tune. What is left is compared with Myers' algorithm, which finds the
+ * fewest notes to remove and insert in time proportional to the length of
+ * what is left times the number of differences.
+ *
+ * If there are more than maxEdits differences, the tunes are split at runs of
+ * anchorLength notes that each tune has only once, taking the longest chain of
+ * such runs that come in the same order in both, and the parts between the
+ * runs are compared on their own (in the same way, but without splitting them
+ * again). Only a part that still differs in more than maxEdits places is
+ * replaced whole, by a hunk marked as such: it may remove and insert again
+ * notes the tunes have in common, so it is larger than it needs to be.
+ */
+class TuneDiff {
+
+    // the most differences looked for before giving up on a minimal diff
+    static final int maxEdits = 2000;
+
+    // the length of the runs of notes that tunes with too many differences are split at
+    private static final int anchorLength = 8;
+
+    /**
+     * A change to a tune: remove some notes, and insert others in their place.
+     */
+    static final class Hunk {
+
+        final int from; // the index (in the old tune) of the first note to remove
+        final int removed; // the number of notes to remove
+        final Note[] inserted; // the notes to insert at that index
+        final boolean whole; // whether the notes differed in too many places to compare, and were replaced whole
+
+        Hunk(int from, int removed, Note[] inserted, boolean whole) {
+            this.from = from;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.whole = whole;
+        }
+    }
+
+    /**
+     * Compare two tunes.
+     *
+     * @param a the old tune
+     * @param b the new tune
+     * @return the hunks that turn a into b, in order
+     */
+    static List<Hunk> diff(Note[] a, Note[] b) {
+        List<Hunk> hunks = new ArrayList<>();
+        compare(a, 0, a.length, b, 0, b.length, true, hunks);
+        return hunks;
+    }
+
+    // add the hunks that turn the notes aFrom to aTo - 1 of a into the notes bFrom to bTo - 1 of b
+    private static void compare(Note[] a, int aFrom, int aTo, Note[] b, int bFrom, int bTo, boolean split, List<Hunk> hunks) {
+        // skip the common start and end
+        while (aFrom < aTo && bFrom < bTo && same(a[aFrom], b[bFrom])) {
+            aFrom++;
+            bFrom++;
+        }
+        while (aFrom < aTo && bFrom < bTo && same(a[aTo - 1], b[bTo - 1])) {
+            aTo--;
+            bTo--;
+        }
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        if (n == 0 && m == 0) {
+            return;
+        }
+        List<int[]> matches = (n == 0 || m == 0) ? new ArrayList<int[]>() : myers(a, aFrom, n, b, bFrom, m);
+        if (matches == null) {
+            if (split) {
+                compareBetweenAnchors(a, aFrom, aTo, b, bFrom, bTo, hunks);
+            } else {
+                hunks.add(new Hunk(aFrom, n, Arrays.copyOfRange(b, bFrom, bTo), true));
+            }
+            return;
+        }
+
+        // the hunks are the gaps between runs of matching notes
+        int x = 0;
+        int y = 0;
+        matches.add(new int[]{n, m, 0});
+        for (int[] run : matches) {
+            if (run[0] > x || run[1] > y) {
+                hunks.add(new Hunk(aFrom + x, run[0] - x, Arrays.copyOfRange(b, bFrom + y, bFrom + run[1]), false));
+            }
+            x = run[0] + run[2];
+            y = run[1] + run[2];
+        }
+    }
+
+    // compare the parts of two ranges of notes between the runs they have in common
+    private static void compareBetweenAnchors(Note[] a, int aFrom, int aTo, Note[] b, int bFrom, int bTo, List<Hunk> hunks) {
+        int[] anchors = anchors(a, aFrom, aTo, b, bFrom, bTo);
+        int x = aFrom;
+        int y = bFrom;
+        for (int i = 0; i < anchors.length; i += 2) {
+            if (anchors[i] < x || anchors[i + 1] < y) {
+                continue; // within the notes matched at the anchor before
+            }
+            compare(a, x, anchors[i], b, y, anchors[i + 1], false, hunks);
+            // the run starting at the anchor, and whatever else matches after it
+            x = anchors[i];
+            y = anchors[i + 1];
+            while (x < aTo && y < bTo && same(a[x], b[y])) {
+                x++;
+                y++;
+            }
+        }
+        compare(a, x, aTo, b, y, bTo, false, hunks);
+    }
+
+    /**
+     * Find runs of anchorLength notes that two ranges of notes each have only
+     * once, and that come in the same order in both. Only runs whose hash has
+     * its lowest three bits clear are looked at, which picks the same runs in
+     * both ranges, and keeps the memory needed to an eighth.
+     *
+     * @return the index in a and the index in b of the first note of each
+     *         run, one pair after the other, in order
+     */
+    private static int[] anchors(Note[] a, int aFrom, int aTo, Note[] b, int bFrom, int bTo) {
+        long[] inA = runs(a, aFrom, aTo);
+        long[] inB = runs(b, bFrom, bTo);
+
+        // the runs each range has once, sorted by hash, paired up (by their index in a, then in b)
+        long[] pairs = new long[Math.min(inA.length, inB.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < inA.length && j < inB.length;) {
+            int h = (int) (inA[i] >> 32);
+            int hb = (int) (inB[j] >> 32);
+            if (h != hb) {
+                if (h < hb) {
+                    i++;
+                } else {
+                    j++;
+                }
+                continue;
+            }
+            int endA = i + 1;
+            while (endA < inA.length && (int) (inA[endA] >> 32) == h) {
+                endA++;
+            }
+            int endB = j + 1;
+            while (endB < inB.length && (int) (inB[endB] >> 32) == h) {
+                endB++;
+            }
+            int x = (int) inA[i];
+            int y = (int) inB[j];
+            if (endA == i + 1 && endB == j + 1 && sameRun(a, x, b, y)) {
+                pairs[count++] = ((long) x << 32) | y;
+            }
+            i = endA;
+            j = endB;
+        }
+        Arrays.sort(pairs, 0, count);
+
+        // the longest chain of pairs in order in b as well (patience sorting)
+        int[] tails = new int[count]; // the last pair of the best chain of each length
+        int[] before = new int[count]; // the pair before each one in its chain
+        int length = 0;
+        for (int p = 0; p < count; p++) {
+            int y = (int) pairs[p];
+            int lo = 0;
+            int hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if ((int) pairs[tails[mid]] < y) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            before[p] = (lo > 0) ? tails[lo - 1] : -1;
+            tails[lo] = p;
+            length = Math.max(length, lo + 1);
+        }
+        int[] anchors = new int[2 * length];
+        for (int i = length - 1, p = (length > 0) ? tails[length - 1] : -1; i >= 0; i--, p = before[p]) {
+            anchors[2 * i] = (int) (pairs[p] >>> 32);
+            anchors[2 * i + 1] = (int) pairs[p];
+        }
+        return anchors;
+    }
+
+    // the runs of anchorLength notes in a range whose hash has its lowest three bits clear, as {hash, index}, sorted
+    private static long[] runs(Note[] notes, int from, int to) {
+        int power = 1; // 31 to the anchorLength
+        for (int i = 0; i < anchorLength; i++) {
+            power *= 31;
+        }
+        long[] runs = new long[16];
+        int count = 0;
+        int h = 0;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + hash(notes[i]);
+            if (i - anchorLength >= from) {
+                h -= power * hash(notes[i - anchorLength]);
+            }
+            if (i - from >= anchorLength - 1 && (h & 7) == 0) {
+                if (count == runs.length) {
+                    runs = Arrays.copyOf(runs, 2 * count);
+                }
+                runs[count++] = ((long) h << 32) | (i - anchorLength + 1);
+            }
+        }
+        runs = Arrays.copyOf(runs, count);
+        Arrays.sort(runs);
+        return runs;
+    }
+
+    // whether two runs of anchorLength notes are the same
+    private static boolean sameRun(Note[] a, int x, Note[] b, int y) {
+        for (int i = 0; i < anchorLength; i++) {
+            if (!same(a[x + i], b[y + i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // a hash of a note, the same for notes that are the same()
+    private static int hash(Note p) {
+        int h = p.noteName.hashCode();
+        h = 31 * h + Double.hashCode(p.duration);
+        h = 31 * h + p.deltaOctave;
+        h = 31 * h + p.dynamic_marking.hashCode();
+        h = 31 * h + p.program;
+        for (Note c : p.chord) {
+            h = 31 * h + hash(c);
+        }
+        return h;
+    }
+
+    /**
+     * Apply hunks to a tune.
+     *
+     * @param tune  the old tune, which becomes the new one
+     * @param hunks the hunks returned by diff(), in order
+     */
+    static void apply(Tune tune, List<Hunk> hunks) {
+        // apply from the end, so the indices of the hunks still to be applied stay valid
+        for (int i = hunks.size() - 1; i >= 0; i--) {
+            Hunk h = hunks.get(i);
+            tune.replaceRange(h.from, h.from + h.removed, h.inserted);
+        }
+    }
+
+    // whether two notes (and their chords) look and sound the same
+    static boolean same(Note p, Note q) {
+        if (p == q) {
+            return true;
+        }
+        if (!(p.noteName.equals(q.noteName) && p.duration == q.duration && p.deltaOctave == q.deltaOctave
+                && p.dynamic_marking.equals(q.dynamic_marking) && p.program == q.program && p.chord.length == q.chord.length)) {
+            return false;
+        }
+        for (int i = 0; i < p.chord.length; i++) {
+            if (!same(p.chord[i], q.chord[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the longest common subsequence of two ranges of notes.
+     *
+     * @return runs of matching notes as {start in a, start in b, length}
+     *         (relative to the starts of the ranges) in order, or null if the
+     *         ranges differ in more than maxEdits places
+     */
+    private static List<int[]> myers(Note[] a, int aStart, int n, Note[] b, int bStart, int m) {
+        int max = Math.min(n + m, maxEdits);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3]; // the furthest x reached on each diagonal k = x - y
+        List<int[]> trace = new ArrayList<>();
+
+        int found = -1;
+        search:
+        for (int d = 0; d <= max; d++) {
+            // remember the diagonals the next step starts from, to trace the path back
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x = (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) ? v[offset + k + 1] : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && same(a[aStart + x], b[bStart + y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    found = d;
+                    break search;
+                }
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+
+        // walk back from the end, collecting the diagonal runs (matching notes)
+        List<int[]> runs = new ArrayList<>();
+        int x = n;
+        int y = m;
+        for (int d = found; d > 0; d--) {
+            int[] prev = trace.get(d); // indexed by k + d + 1
+            int k = x - y;
+            int prevK = (k == -d || (k != d && prev[k - 1 + d + 1] < prev[k + 1 + d + 1])) ? k + 1 : k - 1;
+            int prevX = prev[prevK + d + 1];
+            int prevY = prevX - prevK;
+            // the step from (prevX, prevY) is one insertion or removal, followed by a run of matches
+            int startX = (prevK == k + 1) ? prevX : prevX + 1;
+            int startY = startX - k;
+            if (x > startX) {
+                runs.add(new int[]{startX, startY, x - startX});
+            }
+            x = prevX;
+            y = prevY;
+        }
+        if (x > 0) {
+            runs.add(new int[]{0, 0, x});
+        }
+        Collections.reverse(runs);
+        return runs;
+    }
+}
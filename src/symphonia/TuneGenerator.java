@@ -0,0 +1,242 @@
+package symphonia;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates random tunes, for trying out Symphonia on tunes of any size.
+ *
+ * Each property of a note is chosen independently, according to weights that
+ * can be set separately for the note letter, the accidental, the octave
+ * change, the duration and the dynamic marking. A few ready-made profiles are
+ * available:
+ *
+ *   uniform - every choice equally likely
+ *   typical - mostly natural notes near the middle octave, in common rhythms
+ *             and moderate dynamics, roughly like a real tune
+ *   worst   - the hardest tunes to lay out and draw: only sharps two octaves
+ *             above or below the middle octave, in the shortest duration, with
+ *             a new dynamic marking on almost every note
+ *
+ * Generated tunes can be added to a list of notes, or written directly as
+ * command files. Writing a command file creates one note at a time, so even a
+ * file of 10^7 notes needs very little memory.
+ *
+ * java -cp Symphonia.jar symphonia.TuneGenerator [--notes N] [--profile NAME] [--seed N] [FILE]
+ */
+public class TuneGenerator {
+
+    // the choices for each property, in the order of their weights
+    static final String[] letters = {"C", "D", "E", "F", "G", "A", "B"};
+    static final String[] accidentals = {"", "#", "b"};
+    static final int[] octaves = {-2, -1, 0, 1, 2};
+    static final String[] dynamics = {"pppp", "ppp", "pp", "p", "mp", "mf", "f", "ff", "fff", "ffff"};
+
+    private static final String usage = "Usage: TuneGenerator [--notes <count>] [--profile uniform|typical|worst] [--seed <number>] [<file>]";
+
+    private final Random random;
+    private double[] letterWeights = {1, 1, 1, 1, 1, 1, 1};
+    private double[] accidentalWeights = {1, 1, 1};
+    private double[] octaveWeights = {1, 1, 1, 1, 1};
+    private double[] durationWeights = {1, 1, 1, 1, 1, 1, 1};
+    private double[] dynamicWeights = {1, 1, 1, 1, 1, 1, 1, 1, 1, 1};
+
+    /**
+     * Create a generator in which every choice is equally likely. The same
+     * seed always gives the same tune.
+     *
+     * @param seed the seed of the random number generator
+     */
+    public TuneGenerator(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Create a generator with one of the ready-made profiles.
+     *
+     * @param profile "uniform", "typical" or "worst"
+     * @param seed    the seed of the random number generator
+     * @return the generator
+     * @throws IllegalArgumentException if there is no such profile
+     */
+    public static TuneGenerator profile(String profile, long seed) {
+        TuneGenerator g = new TuneGenerator(seed);
+        if (profile.equals("typical")) {
+            g.setAccidentalWeights(8, 1, 1);
+            g.setOctaveWeights(1, 4, 10, 4, 1);
+            g.setDurationWeights(2, 6, 8, 2, 3, 1, 1); // 0.25 0.5 1 1.5 2 3 4
+            g.setDynamicWeights(0, 0, 1, 3, 6, 8, 6, 3, 1, 0);
+        } else if (profile.equals("worst")) {
+            g.setAccidentalWeights(0, 1, 0);
+            g.setOctaveWeights(1, 0, 0, 0, 1);
+            g.setDurationWeights(1, 0, 0, 0, 0, 0, 0);
+        } else if (!profile.equals("uniform")) {
+            throw new IllegalArgumentException("No such profile: " + profile);
+        }
+        return g;
+    }
+
+    /**
+     * Set the weights of the note letters C, D, E, F, G, A and B.
+     *
+     * @param weights seven weights (not all zero)
+     */
+    public void setLetterWeights(double... weights) {
+        letterWeights = check(weights, letters.length);
+    }
+
+    /**
+     * Set the weights of natural, sharp (#) and flat (b) notes.
+     *
+     * @param weights three weights (not all zero)
+     */
+    public void setAccidentalWeights(double... weights) {
+        accidentalWeights = check(weights, accidentals.length);
+    }
+
+    /**
+     * Set the weights of the octave changes -2, -1, 0, +1 and +2.
+     *
+     * @param weights five weights (not all zero)
+     */
+    public void setOctaveWeights(double... weights) {
+        octaveWeights = check(weights, octaves.length);
+    }
+
+    /**
+     * Set the weights of the durations, in the order of Note.allowedDurations.
+     *
+     * @param weights one weight per allowed duration (not all zero)
+     */
+    public void setDurationWeights(double... weights) {
+        durationWeights = check(weights, Note.allowedDurations.length);
+    }
+
+    /**
+     * Set the weights of the dynamic markings, from pppp to ffff.
+     *
+     * @param weights ten weights (not all zero)
+     */
+    public void setDynamicWeights(double... weights) {
+        dynamicWeights = check(weights, dynamics.length);
+    }
+
+    private static double[] check(double[] weights, int length) {
+        if (weights.length != length) {
+            throw new IllegalArgumentException("Expected " + length + " weights, got " + weights.length);
+        }
+        double total = 0;
+        for (double w : weights) {
+            if (w < 0) {
+                throw new IllegalArgumentException("Weights cannot be negative.");
+            }
+            total += w;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("At least one weight must be positive.");
+        }
+        return weights.clone();
+    }
+
+    // choose an index with probability proportional to its weight
+    private int choose(double[] weights) {
+        double total = 0;
+        for (double w : weights) {
+            total += w;
+        }
+        double r = random.nextDouble() * total;
+        for (int i = 0; i < weights.length - 1; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        // the last choice with a positive weight (also covers rounding errors)
+        int i = weights.length - 1;
+        while (weights[i] == 0) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Generate one note.
+     *
+     * @return a new random note
+     */
+    public Note next() {
+        String name = letters[choose(letterWeights)] + accidentals[choose(accidentalWeights)];
+        return new Note(name, Note.allowedDurations[choose(durationWeights)], octaves[choose(octaveWeights)], dynamics[choose(dynamicWeights)]);
+    }
+
+    /**
+     * Add random notes to the end of a tune.
+     *
+     * @param tune  the tune to add to
+     * @param count the number of notes to add
+     */
+    public void addTo(List<Note> tune, int count) {
+        for (int i = 0; i < count; i++) {
+            tune.add(next());
+        }
+    }
+
+    /**
+     * Write a random tune as a command file, one note at a time.
+     *
+     * @param count the number of notes
+     * @param out   the destination of the command file
+     * @throws IOException if the command file cannot be written
+     */
+    public void write(long count, Writer out) throws IOException {
+        out.write(CommandFile.HEADER + "\n");
+        for (long i = 0; i < count; i++) {
+            CommandFile.write(next(), out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Write a random command file to a file or standard output.
+     *
+     * @param args command line arguments; see the usage message
+     */
+    public static void main(String[] args) throws IOException {
+        long notes = 1000;
+        String profile = "uniform";
+        long seed = 0;
+        String file = null;
+        TuneGenerator g = null;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--notes")) {
+                    notes = Long.parseLong(args[++i]);
+                    if (notes < 0) {
+                        throw new IllegalArgumentException();
+                    }
+                } else if (args[i].equals("--profile")) {
+                    profile = args[++i];
+                } else if (args[i].equals("--seed")) {
+                    seed = Long.parseLong(args[++i]);
+                } else if (args[i].startsWith("--") || file != null) {
+                    throw new IllegalArgumentException();
+                } else {
+                    file = args[i];
+                }
+            }
+            g = profile(profile, seed);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException ex) {
+            System.err.println(usage);
+            System.exit(2);
+        }
+
+        try (Writer out = new BufferedWriter((file == null) ? new OutputStreamWriter(System.out) : new FileWriter(file), 1 << 16)) {
+            g.write(notes, out);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package symphonia;
+
+import javax.sound.midi.MidiChannel;
+
+/**
+ * Decides which MIDI channel each note is played on.
+ *
+ * A MIDI channel plays one instrument (program) at a time, but any number of
+ * notes on it, so notes for the same instrument share a channel, whichever
+ * voice they belong to. A note for an instrument that no channel is set to
+ * takes the channel that has been silent longest, which is switched to the
+ * instrument with a program change. If every channel is sounding, the channel
+ * whose last note started longest ago is stolen: its notes are stopped and it
+ * is switched to the new instrument. Channel 9 (the tenth) is reserved for
+ * percussion by General MIDI and is never used.
+ *
+ * Synthesizers can only play so many notes at once, so when maxSounding notes
+ * are sounding, the one that started first is stopped to make room (the same
+ * way a piano runs out of fingers).
+ *
+ * An allocator is used by one thread only (the Player's scheduler).
+ */
+class VoiceAllocator {
+
+    // General MIDI reserves this channel for percussion
+    static final int percussionChannel = 9;
+
+    private final MidiChannel[] channels;
+    private final int maxSounding;
+    private final int[] program; // the program each channel is set to (-1 if not yet set)
+    private final int[] sounding; // the number of notes sounding on each channel
+    private final long[] lastUsed; // when each channel last started a note (in notes started)
+    private long started = 0;
+
+    // the notes sounding, oldest first, as channel << 8 | key (an array rather than a list, so starting a note allocates nothing)
+    private final int[] notes;
+    private int count = 0;
+
+    /**
+     * Parameterized constructor.
+     *
+     * @param channels    the channels of the synthesizer (usually 16)
+     * @param maxSounding the most notes to let sound at the same time
+     */
+    VoiceAllocator(MidiChannel[] channels, int maxSounding) {
+        this.channels = channels;
+        this.maxSounding = maxSounding;
+        program = new int[channels.length];
+        sounding = new int[channels.length];
+        lastUsed = new long[channels.length];
+        notes = new int[maxSounding];
+        for (int c = 0; c < channels.length; c++) {
+            program[c] = -1;
+        }
+    }
+
+    /**
+     * Start a note (and the rest of its chord) on a suitable channel.
+     *
+     * @param n the note to start
+     * @return the channel the note was started on (to be passed to noteOff)
+     */
+    int noteOn(Note n) {
+        int c = channelFor(n.program);
+        start(c, n.midiNum, n.velocity);
+        for (Note other : n.chord) {
+            start(c, other.midiNum, other.velocity);
+        }
+        lastUsed[c] = ++started;
+        return c;
+    }
+
+    /**
+     * Stop a note (and the rest of its chord). Nothing happens for notes that
+     * were already stopped to make room for others.
+     *
+     * @param n       the note to stop
+     * @param channel the channel returned by noteOn
+     */
+    void noteOff(Note n, int channel) {
+        release(channel, n.midiNum);
+        for (Note other : n.chord) {
+            release(channel, other.midiNum);
+        }
+    }
+
+    /**
+     * Stop every note that is sounding.
+     */
+    void allNotesOff() {
+        for (int c = 0; c < channels.length; c++) {
+            if (sounding[c] > 0) {
+                channels[c].allNotesOff();
+                sounding[c] = 0;
+            }
+        }
+        count = 0;
+    }
+
+    private void start(int channel, int key, int velocity) {
+        if (count >= maxSounding) {
+            int oldest = notes[0];
+            remove(0);
+            stop(oldest >> 8, oldest & 0xFF);
+        }
+        channels[channel].noteOn(key, velocity);
+        notes[count++] = channel << 8 | key;
+        sounding[channel]++;
+    }
+
+    private void release(int channel, int key) {
+        for (int i = 0; i < count; i++) {
+            if (notes[i] == (channel << 8 | key)) {
+                remove(i);
+                stop(channel, key);
+                return;
+            }
+        }
+    }
+
+    // send a note off, unless the same key is still held by another note on the channel
+    private void stop(int channel, int key) {
+        sounding[channel]--;
+        for (int i = 0; i < count; i++) {
+            if (notes[i] == (channel << 8 | key)) {
+                return;
+            }
+        }
+        channels[channel].noteOff(key);
+    }
+
+    // take a note out of the list of those sounding, keeping the rest in order
+    private void remove(int i) {
+        System.arraycopy(notes, i + 1, notes, i, count - i - 1);
+        count--;
+    }
+
+    // the channel to play a program on, switching a channel to it if necessary
+    private int channelFor(int prog) {
+        int silent = -1;
+        int leastRecent = -1;
+        for (int c = 0; c < channels.length; c++) {
+            if (c == percussionChannel) {
+                continue;
+            }
+            if (program[c] == prog) {
+                return c;
+            }
+            if (sounding[c] == 0 && (silent < 0 || lastUsed[c] < lastUsed[silent])) {
+                silent = c;
+            }
+            if (leastRecent < 0 || lastUsed[c] < lastUsed[leastRecent]) {
+                leastRecent = c;
+            }
+        }
+
+        int c = silent;
+        if (c < 0) {
+            // steal a channel: stop its notes
+            c = leastRecent;
+            for (int i = count - 1; i >= 0; i--) {
+                if (notes[i] >> 8 == c) {
+                    remove(i);
+                }
+            }
+            channels[c].allNotesOff();
+            sounding[c] = 0;
+        }
+        channels[c].programChange(prog);
+        program[c] = prog;
+        return c;
+    }
+}